@@ -29,208 +29,305 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.text.format.Time;
 import android.util.Log;
 
+import com.google.code.yadview.AbstractEventResource;
 import com.google.code.yadview.Event;
-import com.google.code.yadview.EventResource;
 import com.google.code.yadview.Predicate;
 import com.google.common.collect.Lists;
 
-public class EventResourceFromJson implements EventResource {
+/**
+ * Shows the events of a JSON feed on every day. The feed is downloaded and
+ * parsed once into a list of daily events sorted by start time, and loads
+ * build their days from that list. It is downloaded again when it is older
+ * than the time to live or after {@link #refresh()}.
+ */
+public class EventResourceFromJson extends AbstractEventResource {
 
-	// Initialize our list of strings
-	List<String> event_name_list = new ArrayList<String>();
-	List<String> start_time_list = new ArrayList<String>();
-	List<String> end_time_list = new ArrayList<String>();
+	private static final String TAG = "EventResourceFromJson";
 
-	// Process our JSON in a separate thread
-	public class RetrieveFromJSON extends AsyncTask<Void, Void, Void> {
+	// JSON data URL
+	private static final String url = "https://raw.githubusercontent.com/brianwphamSF/test_json_files/master/dijit.json";
 
-		// JSON data URL
-		private static final String url = "https://raw.githubusercontent.com/brianwphamSF/test_json_files/master/dijit.json";
+	// JSON node names
+	private static final String TAG_EVENT_NAME = "event_name";
+	private static final String TAG_START_TIME = "start_time";
+	private static final String TAG_END_TIME = "end_time";
 
-		// JSON node names
-		private static final String TAG_EVENT_NAME = "event_name";
-		private static final String TAG_START_TIME = "start_time";
-		private static final String TAG_END_TIME = "end_time";
+	/** How long a downloaded feed is used before it is downloaded again */
+	public static final long DEFAULT_TTL_MILLIS = 15 * 60 * 1000;
 
-		// Create new instance of JSONParser
-		JSONParser jParser = new JSONParser();
+	// How often a load waiting for the JSON checks whether it is still wanted
+	private static final long CANCEL_POLL_MILLIS = 20;
 
-		// Parse into a JSON array from JSON data URL
-		JSONArray jsonArray = jParser.getJSONArrayFromUrl(url);
+	int colours[] = new int[] { 0xffB467B5, 0xff677DB5, 0xff67B59F };
 
-		@Override
-		protected Void doInBackground(Void... params) {
-			// TODO Auto-generated method stub
-			try {
-
-				for (int i = 0; i < jsonArray.length(); i++) {
-					
-					// Get current instance of JSON object from array.
-					JSONObject jObj = jsonArray.getJSONObject(i);
-
-					// Populate the lists accordingly.
-					event_name_list.add(jObj.getString(TAG_EVENT_NAME));
-					start_time_list.add(jObj.getString(TAG_START_TIME));
-					end_time_list.add(jObj.getString(TAG_END_TIME));
-				}
+	// One entry of the feed, the same on every day
+	private static class DailyEvent {
+		long id;
+		String title;
+		int startHours;
+		int endHours;
+		int startTime;	// Start and end time are in minutes since midnight
+		int endTime;
+		int color;
+	}
 
-			} catch (JSONException e) {
-				e.printStackTrace();
+	// Guards the fields below
+	private final Object mLock = new Object();
+	// The parsed feed sorted by start time, null until the first download
+	private List<DailyEvent> mDailyEvents;
+	private long mFetchedAt;
+	private boolean mStale;
+	// The download in progress, shared by all the loads waiting for it
+	private FutureTask<List<DailyEvent>> mFetch;
+	// How many loads wait for mFetch. It is abandoned when none does.
+	private int mWaiters;
+
+	private final Predicate mFetchWanted = new Predicate() {
+		@Override
+		public boolean value() {
+			synchronized (mLock) {
+				return mWaiters > 0;
 			}
-			return null;
 		}
+	};
+
+	private volatile long mTtlMillis = DEFAULT_TTL_MILLIS;
 
+	/**
+	 * Sets how long a downloaded feed is used before the next load downloads
+	 * it again.
+	 */
+	public void setTtlMillis(long ttlMillis) {
+		mTtlMillis = ttlMillis;
 	}
 
-	int colours[] = new int[] { 0xffB467B5, 0xff677DB5, 0xff67B59F };
+	/**
+	 * Makes the next load download the feed again. Until the download is done
+	 * the loads wait for it, and if it fails they keep the previous feed.
+	 */
+	public void refresh() {
+		synchronized (mLock) {
+			mStale = true;
+		}
+	}
 
 	@Override
 	public List<Event> get(int startJulianDay, int numDays,
 			Predicate continueLoading) {
-		
-		// Get the data from our separate thread
+		List<Event> events = Lists.newArrayList();
+
+		// Wait for the feed, giving up as soon as this load is no longer
+		// wanted. The download carries on while another load waits for it,
+		// and is aborted once none does.
+		FutureTask<List<DailyEvent>> fetch = getOrStartFetch();
+		List<DailyEvent> dailyEvents = null;
 		try {
-			new RetrieveFromJSON().execute().get();
-		} catch (InterruptedException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-		} catch (ExecutionException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
+			while (fetch != null) {
+				try {
+					dailyEvents = fetch.get(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+					break;
+				} catch (TimeoutException e1) {
+					if (!continueLoading.value()) {
+						return events;
+					}
+				} catch (CancellationException e1) {
+					break;
+				} catch (InterruptedException e1) {
+					Thread.currentThread().interrupt();
+					return events;
+				} catch (ExecutionException e1) {
+					Log.e(TAG, "Could not read the events", e1.getCause());
+					break;
+				}
+			}
+		} finally {
+			if (fetch != null) {
+				synchronized (mLock) {
+					mWaiters--;
+				}
+			}
+		}
+		dailyEvents = finishFetch(fetch, dailyEvents);
+		if (dailyEvents == null) {
+			return events;
 		}
 
-		// Debug statements
-		/*
-		Log.d("event array", event_name_list.toString());
-		Log.d("start times", start_time_list.toString());
-		Log.d("end times", end_time_list.toString());
-
-		Log.d("test", event_name_list.get(0));
-		Log.d("test2", start_time_list.get(2));
+		// Make new time for the day
+		Time scratch = new Time();
+		for (int i = 0; i < numDays; i++) {
+			if (!continueLoading.value()) {
+				return events;
+			}
 
-		Log.d("sizeof array", "size: " + event_name_list.size());
-		*/
-		
-		List<Event> events = Lists.newArrayList();
-		
-		int startHours, endHours, startMinutes, endMinutes;
+			final int julianDay = startJulianDay + i;
+			scratch.setJulianDay(julianDay);
 
-		for (int i = 0; i < numDays; i++) {
-			
-			// Make new time for the day
-			Time scratch = new Time();
-			Event e;
-			
-			// Start adding the list of events from JSON
-			for (int j = 0; j < event_name_list.size(); j++) {
-				
-				// Create the event
-				e = new Event();
-				
+			// The daily events are sorted by start time, so the events of
+			// the range come out sorted too
+			for (DailyEvent daily : dailyEvents) {
+				Event e = new Event();
+				e.setId(daily.id);
 				e.setAllDay(false);
-				e.setEndDay(startJulianDay + i);
-				e.setId(j + 1L);
-				
-				// Calculating the height of event by time
-				Double endTime = Double.parseDouble(end_time_list.get(j));
-				Double startTime = Double.parseDouble(start_time_list.get(j));
-
-				// Check whether or not there is a dot character
-				// first for end time, then for start time
-				if (end_time_list.get(j).contains(".")) {
-					String[] time = end_time_list.get(j).split("\\.");
-					
-					// Make into hours and minutes from the time array
-					endHours = Integer.parseInt(time[0]);
-					endMinutes = Integer.parseInt(time[1]);
-					
-					// Append . in minutes
-					String myMinute = "." + endMinutes;
-					
-					// Parse the minute string
-					Double calculatedMinute = Double.parseDouble(myMinute) * 60;
-					//Log.d("the end time", "j:" + j + " " + (int) (endHours * 60 + calculatedMinute));
-					
-					// Set the end time from the minutes and hours
-					e.setEndTime((int) (endHours * 60 + calculatedMinute));
-				} else {
-					endHours = Integer.parseInt(end_time_list.get(j));
-					e.setEndTime(endHours * 60 - 1);
-					//Log.d("the end time without min", "j:" + j + " " + (endHours * 60));
-				}
+				e.setStartDay(julianDay);
+				e.setEndDay(julianDay);
+				e.setStartTime(daily.startTime);
+				e.setEndTime(daily.endTime);
 
-				e.setStartDay(startJulianDay + i);
-
-				if (start_time_list.get(j).contains(".")) {
-					// Same idea as above in check list
-					String[] time = start_time_list.get(j).split("\\.");
-					
-					startHours = Integer.parseInt(time[0]);
-					startMinutes = Integer.parseInt(time[1]);
-					
-					String myMinute = "." + startMinutes;
-					
-					Double calculatedMinute = Double.parseDouble(myMinute) * 60;
-					
-					e.setStartTime((int) (startHours * 60 + calculatedMinute));
-					//Log.d("the start time (Y-coord)", "j:" + j + " " + (int) (startHours * 60 + calculatedMinute));
-				} else {
-					startHours = Integer.parseInt(start_time_list.get(j));
-					e.setStartTime(startHours * 60);
-					//Log.d("the start time without min (Y-coord)", "j:" + j + " " + (startHours * 60));
-				}
-				
-				Log.d("Y coordinate in time", start_time_list.get(j));
-
-				e.setColor(randomColour());
-				
-				// At the first event of the day, start the day
-				if (j == 0)
-					scratch.setJulianDay(startJulianDay + i);
-				
 				// Allocate the times
-				scratch.hour = startHours;
-				scratch.minute = e.getStartTime() % 60;
+				scratch.hour = daily.startHours;
+				scratch.minute = daily.startTime % 60;
 				e.setStartMillis(scratch.toMillis(false));
-				scratch.hour = endHours;
-				scratch.minute = e.getEndTime() % 60;
+				scratch.hour = daily.endHours;
+				scratch.minute = daily.endTime % 60;
 				e.setEndMillis(scratch.toMillis(false));
-				
-				Log.d("height in time", ("" + (endTime - startTime)));
 
-				e.setTitle(event_name_list.get(j));
-				//Log.d("event name", event_name_list.get(j));
+				e.setColor(daily.color);
+				e.setTitle(daily.title);
 				events.add(e);
-				
 			}
 		}
 
-		Collections.sort(events, new Comparator<Event>() {
+		return events;
+	}
+
+	// Returns the download the caller should wait for, starting one if the
+	// feed is missing or too old, or null if the parsed feed is fresh. The
+	// caller counts as waiting until it decrements mWaiters.
+	private FutureTask<List<DailyEvent>> getOrStartFetch() {
+		synchronized (mLock) {
+			if (mFetch != null) {
+				mWaiters++;
+				return mFetch;
+			}
+			if (mDailyEvents != null && !mStale
+					&& SystemClock.uptimeMillis() - mFetchedAt < mTtlMillis) {
+				return null;
+			}
+			mStale = false;
+			mFetch = new FutureTask<List<DailyEvent>>(new Callable<List<DailyEvent>>() {
+				@Override
+				public List<DailyEvent> call() {
+					List<DailyEvent> fetched = fetchDailyEvents();
+					if (fetched == null) {
+						synchronized (mLock) {
+							// Nobody is left to take the result, so the next
+							// load starts a new download
+							if (mWaiters == 0) {
+								mFetch = null;
+							}
+						}
+					}
+					return fetched;
+				}
+			});
+			mWaiters++;
+			AsyncTask.THREAD_POOL_EXECUTOR.execute(mFetch);
+			return mFetch;
+		}
+	}
+
+	// Stores the result of a finished download and returns the feed to use
+	private List<DailyEvent> finishFetch(FutureTask<List<DailyEvent>> fetch,
+			List<DailyEvent> fetched) {
+		synchronized (mLock) {
+			if (fetch != null && fetch == mFetch && fetch.isDone()) {
+				mFetch = null;
+				if (fetched != null) {
+					mDailyEvents = fetched;
+				}
+				// A failed download is only tried again after the time to
+				// live, unless there is no feed at all
+				mFetchedAt = SystemClock.uptimeMillis();
+			}
+			return fetched != null ? fetched : mDailyEvents;
+		}
+	}
 
+	// Downloads and parses the feed, returns null if it could not be read
+	// or no load waits for it any more
+	private List<DailyEvent> fetchDailyEvents() {
+		// Parse into a JSON array from JSON data URL
+		JSONArray jsonArray = new JSONParser().getJSONArrayFromUrl(url, mFetchWanted);
+		if (jsonArray == null) {
+			return null;
+		}
+
+		List<DailyEvent> dailyEvents = new ArrayList<DailyEvent>();
+		try {
+			for (int i = 0; i < jsonArray.length(); i++) {
+				// Get current instance of JSON object from array.
+				JSONObject jObj = jsonArray.getJSONObject(i);
+
+				DailyEvent daily = new DailyEvent();
+				daily.id = i + 1L;
+				daily.title = jObj.getString(TAG_EVENT_NAME);
+				daily.color = randomColour();
+				try {
+					parseEndTime(daily, jObj.getString(TAG_END_TIME));
+					parseStartTime(daily, jObj.getString(TAG_START_TIME));
+				} catch (NumberFormatException e) {
+					Log.w(TAG, "Skipping event with a bad time: " + jObj);
+					continue;
+				}
+				dailyEvents.add(daily);
+			}
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+
+		// Stable, so events that start together keep the order of the feed
+		Collections.sort(dailyEvents, new Comparator<DailyEvent>() {
 			@Override
-			public int compare(Event lhs, Event rhs) {
-				long l = lhs.getStartMillis() - rhs.getStartMillis();
-				if (l < 0) {
-					return -1;
-				} else if (l > 0) {
-					return 1;
-				} else
-					return 0;
+			public int compare(DailyEvent lhs, DailyEvent rhs) {
+				return lhs.startTime - rhs.startTime;
 			}
 		});
+		return dailyEvents;
+	}
 
-		return events;
+	// Times are hours, optionally followed by a dot and the fraction of an
+	// hour given by the digits after the dot
+	private static void parseEndTime(DailyEvent daily, String endTime) {
+		if (endTime.contains(".")) {
+			String[] time = endTime.split("\\.");
+
+			// Make into hours and minutes from the time array
+			daily.endHours = Integer.parseInt(time[0]);
+			String myMinute = "." + Integer.parseInt(time[1]);
+			daily.endTime = (int) (daily.endHours * 60 + Double.parseDouble(myMinute) * 60);
+		} else {
+			daily.endHours = Integer.parseInt(endTime);
+			daily.endTime = daily.endHours * 60 - 1;
+		}
+	}
+
+	private static void parseStartTime(DailyEvent daily, String startTime) {
+		if (startTime.contains(".")) {
+			String[] time = startTime.split("\\.");
 
+			daily.startHours = Integer.parseInt(time[0]);
+			String myMinute = "." + Integer.parseInt(time[1]);
+			daily.startTime = (int) (daily.startHours * 60 + Double.parseDouble(myMinute) * 60);
+		} else {
+			daily.startHours = Integer.parseInt(startTime);
+			daily.startTime = daily.startHours * 60;
+		}
 	}
 
 	@Override
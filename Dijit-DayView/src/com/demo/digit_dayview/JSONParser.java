@@ -26,6 +26,8 @@ import org.json.JSONObject;
 
 import android.util.Log;
 
+import com.google.code.yadview.Predicate;
+
 public class JSONParser {
 	static InputStream is = null;
 	static JSONObject jObj = null;
@@ -76,14 +78,25 @@ public class JSONParser {
 	}
 	
 	public JSONArray getJSONArrayFromUrl(String url) {
+		return getJSONArrayFromUrl(url, Predicate.TRUE);
+	}
+
+	/**
+	 * Same as {@link #getJSONArrayFromUrl(String)}, but aborts the request
+	 * and returns null as soon as continueLoading turns false. Keeps its
+	 * state to itself, so downloads on several threads do not mix.
+	 */
+	public JSONArray getJSONArrayFromUrl(String url, Predicate continueLoading) {
 		// Making HTTP request
+		HttpPost httpPost = null;
+		InputStream in = null;
 		try {
 			// defaultHttpClient
 			DefaultHttpClient httpClient = new DefaultHttpClient();
-			HttpPost httpPost = new HttpPost(url);
+			httpPost = new HttpPost(url);
 			HttpResponse httpResponse = httpClient.execute(httpPost);
 			HttpEntity httpEntity = httpResponse.getEntity();
-			is = httpEntity.getContent();
+			in = httpEntity.getContent();
 		} catch (UnsupportedEncodingException e) {
 			e.printStackTrace();
 		} catch (ClientProtocolException e) {
@@ -91,26 +104,38 @@ public class JSONParser {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		if (!continueLoading.value()) {
+			if (httpPost != null) {
+				httpPost.abort();
+			}
+			return null;
+		}
+		String result = "";
 		try {
 			BufferedReader reader = new BufferedReader(new InputStreamReader(
-					is, "iso-8859-1"), 8);
+					in, "iso-8859-1"), 8);
 			StringBuilder sb = new StringBuilder();
 			String line = null;
 			while ((line = reader.readLine()) != null) {
+				if (!continueLoading.value()) {
+					if (httpPost != null) {
+						httpPost.abort();
+					}
+					return null;
+				}
 				sb.append(line + "n");
 			}
-			is.close();
-			json = sb.toString();
+			in.close();
+			result = sb.toString();
 		} catch (Exception e) {
 			Log.e("Buffer Error", "Error converting result " + e.toString());
 		}
-		// try parse the string to a JSON object
+		// try parse the string to a JSON array
 		try {
-			jArr = new JSONArray(json);
+			return new JSONArray(result);
 		} catch (JSONException e) {
 			Log.e("JSON Parser", "Error parsing data " + e.toString());
+			return null;
 		}
-		// return JSON String
-		return jArr;
 	}
 }
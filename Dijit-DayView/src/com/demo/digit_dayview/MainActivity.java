@@ -25,6 +25,7 @@ import android.view.Menu;
 import android.widget.ViewSwitcher;
 
 import com.google.code.yadview.DayView;
+import com.google.code.yadview.DayViewEventLoader;
 import com.google.code.yadview.EventResource;
 import com.google.gode.yadview_harness.R;
 
@@ -32,14 +33,7 @@ public class MainActivity extends Activity  {
 
     private EventResource mEventResource;
     private YadviewHarnessDayViewFactory mViewFactory;
-
-	public MainActivity() {
-		//mEventResource = new MockEventResource();
-	    mEventResource = new EventResourceFromJson();
-//	    mEventResource = new DefaultEventResource(this, new DefaultUtilFactory("yadview_harness.prefs"));
-		
-		
-	}
+    private ViewSwitcher mViewSwitcher;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -47,13 +41,27 @@ public class MainActivity extends Activity  {
 		setContentView(R.layout.activity_main);
 		
 		ViewSwitcher vs = (ViewSwitcher)findViewById(R.id.view_switcher);
-		mViewFactory = new YadviewHarnessDayViewFactory(vs, mEventResource, this);
+		mViewSwitcher = vs;
+		// After a rotation carry on with the loader, and the events it has,
+		// of the previous instance
+		DayViewEventLoader retained = (DayViewEventLoader)getLastNonConfigurationInstance();
+		if (retained != null) {
+		    mEventResource = retained.getEventResource();
+		    mViewFactory = new YadviewHarnessDayViewFactory(vs, retained, this);
+		} else {
+		    //mEventResource = new MockEventResource();
+		    mEventResource = new EventResourceFromJson();
+//		    mEventResource = new DefaultEventResource(this, new DefaultUtilFactory("yadview_harness.prefs"));
+		    mViewFactory = new YadviewHarnessDayViewFactory(vs, mEventResource, this);
+		}
 		vs.setFactory(mViewFactory);
 		DayView dv = (DayView)vs.getCurrentView();
         Time today = new Time();
         today.setToNow();
         dv.setSelected(today, false, false);
-        dv.clearCachedEvents();
+        if (retained == null) {
+            dv.clearCachedEvents();
+        }
         dv.reloadEvents();
 	}
 	
@@ -61,15 +69,24 @@ public class MainActivity extends Activity  {
 	protected void onResume() {
 		super.onResume();
 		mViewFactory.getEventLoader().startBackgroundThread();
-		
+		mViewFactory.startTrackingChanges();
+		// A load cut short by the last pause starts again, otherwise this
+		// does nothing
+		((DayView)mViewSwitcher.getCurrentView()).reloadEvents();
 	}
 	
 	@Override
 	protected void onPause() {
 		super.onPause();
+		mViewFactory.stopTrackingChanges();
 		mViewFactory.getEventLoader().stopBackgroundThread();
 	}
 
+	@Override
+	public Object onRetainNonConfigurationInstance() {
+		return mViewFactory.getEventLoader();
+	}
+
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		// Inflate the menu; this adds items to the action bar if it is present.
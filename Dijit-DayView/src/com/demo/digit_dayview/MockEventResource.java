@@ -25,12 +25,12 @@ import java.util.Random;
 import android.text.format.Time;
 import android.util.Log;
 
+import com.google.code.yadview.AbstractEventResource;
 import com.google.code.yadview.Event;
-import com.google.code.yadview.EventResource;
 import com.google.code.yadview.Predicate;
 import com.google.common.collect.Lists;
 
-public class MockEventResource implements EventResource {
+public class MockEventResource extends AbstractEventResource {
 
     int colours[] = new int[] {
             0xffB467B5,
@@ -43,6 +43,9 @@ public class MockEventResource implements EventResource {
         List<Event> events = Lists.newArrayList();
 
         for(int i = 0; i < numDays; i++){
+            if (!continueLoading.value()) {
+                return events;
+            }
             Event e1 = new Event();
 
             e1.setAllDay(false);
@@ -31,6 +31,7 @@ import com.google.code.yadview.DayView;
 import com.google.code.yadview.DayViewOnKeyListener;
 import com.google.code.yadview.DayViewRenderer;
 import com.google.code.yadview.EventRenderer;
+import com.google.code.yadview.DayViewEventLoader;
 import com.google.code.yadview.EventResource;
 import com.google.code.yadview.events.ShowDateInDayViewEvent;
 import com.google.code.yadview.impl.DefaultDayViewFactory;
@@ -46,7 +47,11 @@ public class YadviewHarnessDayViewFactory extends DefaultDayViewFactory {
     private Activity mActivity;
 
     public YadviewHarnessDayViewFactory(ViewSwitcher vs, EventResource eventResource, Activity context) {
-        super(context, vs, eventResource, "yadview_harness.prefs", new AlternateRendererDayViewResources(context));
+        this(vs, new DayViewEventLoader(eventResource), context);
+    }
+
+    public YadviewHarnessDayViewFactory(ViewSwitcher vs, DayViewEventLoader eventLoader, Activity context) {
+        super(context, vs, eventLoader, "yadview_harness.prefs", new AlternateRendererDayViewResources(context));
         
         mActivity = context;
         
@@ -0,0 +1,67 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+package com.google.code.yadview;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Base class for an {@link EventResource} that only knows how to load events.
+ * The events are streamed as a single batch, and the day markers are worked
+ * out from the events of the whole range.
+ */
+public abstract class AbstractEventResource implements EventResource {
+
+    @Override
+    public void get(int startJulianDay, int numDays, EventSink sink, Predicate continueLoading) {
+        List<Event> events = get(startJulianDay, numDays, continueLoading);
+        if (!events.isEmpty()) {
+            sink.onEvents(events);
+        }
+    }
+
+    // All the events arrive at once, so there is nothing to hand over first
+    @Override
+    public void get(int startJulianDay, int numDays, int focusStartMinute, int focusEndMinute,
+            EventSink sink, Predicate continueLoading) {
+        get(startJulianDay, numDays, sink, continueLoading);
+    }
+
+    @Override
+    public void getEventDays(int startJulianDay, int numDays, boolean[] eventDays,
+            Predicate continueLoading) {
+        markEventDays(get(startJulianDay, numDays, continueLoading), startJulianDay, numDays,
+                eventDays);
+    }
+
+    /**
+     * Sets eventDays[i] for each of the numDays days starting at
+     * startJulianDay that one of the events touches, and clears the others.
+     */
+    public static void markEventDays(List<Event> events, int startJulianDay, int numDays,
+            boolean[] eventDays) {
+        Arrays.fill(eventDays, 0, numDays, false);
+        final int endJulianDay = startJulianDay + numDays - 1;
+        for (Event event : events) {
+            final int first = Math.max(event.getStartDay(), startJulianDay);
+            final int last = Math.min(event.getEndDay(), endJulianDay);
+            for (int day = first; day <= last; day++) {
+                eventDays[day - startJulianDay] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+package com.google.code.yadview;
+
+import java.util.ArrayList;
+
+/**
+ * Sweep line layout over primitive arrays. The start and end of every event
+ * are copied into long arrays up front and the active events are kept in an
+ * array backed heap, so the pass itself allocates no per-event objects and
+ * does not touch the {@link EventLayout}s until each overlap group is closed.
+ * <p>
+ * Gives exactly the same columns as {@link ReferenceLayoutStrategy}. The
+ * working arrays are allocated per call, so one instance may be shared
+ * between threads.
+ */
+public class ArrayLayoutStrategy implements LayoutStrategy {
+
+    @Override
+    public void computePositions(ArrayList<EventLayout> eventLayouts, long minimumDurationMillis,
+            int maxVisibleColumns, boolean doAlldayEvents) {
+        final int size = eventLayouts.size();
+        final int[] indices = new int[size];
+        final long[] starts = new long[size];
+        final long[] ends = new long[size];
+
+        // Gather the events of the requested kind, see ReferenceLayoutStrategy
+        // for the meaning of start and end.
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            final Event event = eventLayouts.get(i).getEvent();
+            if (event.drawAsAllday() != doAlldayEvents)
+                continue;
+
+            final long start;
+            if (doAlldayEvents) {
+                start = event.getStartDay();
+                ends[n] = event.getEndDay() + 1L;
+            } else {
+                start = event.getStartMillis();
+                ends[n] = start + Math.max(event.getEndMillis() - start, minimumDurationMillis);
+            }
+            starts[n] = start;
+            indices[n] = i;
+            n++;
+        }
+        if (n == 0) {
+            return;
+        }
+
+        final int[] columns = new int[n];
+        // Min-heap of the active events, keyed on end
+        final long[] heapEnds = new long[n];
+        final int[] heapColumns = new int[n];
+        int heapSize = 0;
+        final ColumnAllocator allocator = new ColumnAllocator();
+
+        int groupStart = 0;
+        int maxCols = 0;
+        for (int i = 0; i < n; i++) {
+            final long start = starts[i];
+            while (heapSize > 0 && heapEnds[0] <= start) {
+                allocator.release(heapColumns[0]);
+                heapSize--;
+                siftDown(heapEnds, heapColumns, heapSize, heapEnds[heapSize], heapColumns[heapSize]);
+            }
+
+            if (heapSize == 0) {
+                closeGroup(eventLayouts, indices, columns, groupStart, i, maxCols, maxVisibleColumns);
+                groupStart = i;
+                maxCols = 0;
+                allocator.clear();
+            }
+
+            final int col = allocator.allocate();
+            columns[i] = col;
+            siftUp(heapEnds, heapColumns, heapSize, ends[i], col);
+            heapSize++;
+            if (maxCols < heapSize)
+                maxCols = heapSize;
+        }
+        closeGroup(eventLayouts, indices, columns, groupStart, n, maxCols, maxVisibleColumns);
+    }
+
+    /**
+     * Writes the columns of the events in [from, to) back to their layouts,
+     * folding the ones past maxVisibleColumns into a shared overflow.
+     */
+    private static void closeGroup(ArrayList<EventLayout> eventLayouts, int[] indices,
+            int[] columns, int from, int to, int maxCols, int maxVisibleColumns) {
+        if (maxVisibleColumns > 0 && maxCols > maxVisibleColumns) {
+            maxCols = maxVisibleColumns;
+        }
+        EventOverflow overflow = null;
+        for (int k = from; k < to; k++) {
+            final EventLayout layout = eventLayouts.get(indices[k]);
+            final int col = columns[k];
+            layout.setColumn(col);
+            layout.setMaxColumns(maxCols);
+            if (maxVisibleColumns > 0 && col >= maxVisibleColumns) {
+                if (overflow == null) {
+                    overflow = new EventOverflow();
+                }
+                overflow.add(layout);
+                layout.setOverflow(overflow);
+            } else {
+                layout.setOverflow(null);
+            }
+        }
+    }
+
+    // Places (end, column) at the hole at index pos and moves it towards the root
+    private static void siftUp(long[] ends, int[] cols, int pos, long end, int col) {
+        while (pos > 0) {
+            final int parent = (pos - 1) >>> 1;
+            if (ends[parent] <= end) {
+                break;
+            }
+            ends[pos] = ends[parent];
+            cols[pos] = cols[parent];
+            pos = parent;
+        }
+        ends[pos] = end;
+        cols[pos] = col;
+    }
+
+    // Places (end, column) at the root of a heap of the given size and moves it down
+    private static void siftDown(long[] ends, int[] cols, int size, long end, int col) {
+        int pos = 0;
+        final int half = size >>> 1;
+        while (pos < half) {
+            int child = (pos << 1) + 1;
+            final int right = child + 1;
+            if (right < size && ends[right] < ends[child]) {
+                child = right;
+            }
+            if (end <= ends[child]) {
+                break;
+            }
+            ends[pos] = ends[child];
+            cols[pos] = cols[child];
+            pos = child;
+        }
+        if (size > 0) {
+            ends[pos] = end;
+            cols[pos] = col;
+        }
+    }
+}
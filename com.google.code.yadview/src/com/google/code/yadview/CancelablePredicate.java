@@ -0,0 +1,74 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+package com.google.code.yadview;
+
+/**
+ * A {@link Predicate} that is true until {@link #cancel()} is called. Work
+ * that blocks, such as a ContentResolver query, can register a listener to
+ * be told about the cancel at once instead of checking the value.
+ */
+public class CancelablePredicate implements Predicate {
+
+    private volatile boolean mCanceled;
+    // Guarded by this
+    private Runnable mOnCancelListener;
+
+    @Override
+    public boolean value() {
+        return !mCanceled;
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Makes {@link #value()} false from now on and runs the cancel listener,
+     * if any, on the calling thread.
+     */
+    public void cancel() {
+        Runnable listener;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            listener = mOnCancelListener;
+            mOnCancelListener = null;
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Sets the listener to run when this is cancelled, replacing any earlier
+     * one. Runs it straight away if this is already cancelled. Pass null to
+     * remove the listener.
+     */
+    public void setOnCancelListener(Runnable listener) {
+        synchronized (this) {
+            if (!mCanceled) {
+                mOnCancelListener = listener;
+                return;
+            }
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
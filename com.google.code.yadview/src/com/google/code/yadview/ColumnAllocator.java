@@ -0,0 +1,59 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview;
+
+import java.util.Arrays;
+
+/**
+ * Hands out the lowest free column number. Occupancy is kept as a bit set in
+ * a word array that grows as needed, so there is no limit on the number of
+ * columns.
+ */
+final class ColumnAllocator {
+
+    private long[] mWords = new long[1];
+
+    /**
+     * Marks the lowest free column as used and returns it.
+     */
+    int allocate() {
+        final long[] words = mWords;
+        for (int i = 0; i < words.length; i++) {
+            final long word = words[i];
+            if (word != -1L) {
+                final int bit = Long.numberOfTrailingZeros(~word);
+                words[i] = word | (1L << bit);
+                return (i << 6) + bit;
+            }
+        }
+
+        // Every column is taken, add another word
+        final int i = words.length;
+        mWords = Arrays.copyOf(words, i * 2);
+        mWords[i] = 1L;
+        return i << 6;
+    }
+
+    void release(int column) {
+        mWords[column >>> 6] &= ~(1L << column);
+    }
+
+    void clear() {
+        Arrays.fill(mWords, 0L);
+    }
+}
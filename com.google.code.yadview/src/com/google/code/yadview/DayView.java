@@ -40,6 +40,7 @@ import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Paint.Style;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.os.Handler;
 import android.text.StaticLayout;
@@ -292,6 +293,28 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
 
     private ArrayList<EventLayout> mEvents = new ArrayList<EventLayout>();
     private ArrayList<EventLayout> mAllDayEvents = new ArrayList<EventLayout>();
+    // The timed events in mEvents, grouped by the day they are drawn on
+    private EventDayIndex mEventDayIndex = new EventDayIndex(mEvents, 0, 0);
+    // The event rectangles drawn in the last frame, for hit testing
+    private final EventHitIndex mEventHitIndex = new EventHitIndex();
+    // The "+N" groups of events that did not fit in mMaxVisibleEventColumns
+    private final ArrayList<EventOverflow> mEventOverflows = new ArrayList<EventOverflow>();
+    // The "+N" markers of each day of mEventDayIndex. The markers of day d
+    // are mOverflowMarkers[mOverflowStarts[d], mOverflowStarts[d + 1]).
+    private final ArrayList<OverflowMarker> mOverflowMarkers = new ArrayList<OverflowMarker>();
+    private int[] mOverflowStarts = new int[1];
+    private int mOverflowFirstJulianDay;
+    private int mOverflowNumDays;
+    /**
+     * The most columns of overlapping events drawn side by side. Events past
+     * this are folded into a "+N" marker. 0 means no limit.
+     */
+    private int mMaxVisibleEventColumns = 0;
+    // Bumped whenever mEvents is replaced so cached layouts are not reused
+    private int mEventsGeneration;
+    private EventLayoutCache mEventLayoutCache = new EventLayoutCache();
+    // The snapshot mEvents came from, kept to apply deltas to
+    private EventLayoutSnapshot mEventLayoutSnapshot;
 //    private StaticLayout[] mLayouts = null;
     private StaticLayout[] mAllDayLayouts = null;
     private int mSelectionDay; // Julian day
@@ -313,6 +336,8 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
 
     // Pre-allocate these objects and re-use them
     private final Rect mRect = new Rect();
+    // The rectangle of an event found through mEventHitIndex
+    private final RectF mHitRect = new RectF();
     private final Rect mDestRect = new Rect();
     private final Rect mSelectionRect = new Rect();
     // This encloses the more allDay events icon
@@ -1021,13 +1046,6 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
                 (int) (mMaxUnexpandedAllDayHeight / mDayViewResources
                         .getMinUnexpandedAllDayEventHeight());
 
-        // First, clear the array of earliest start times, and the array
-        // indicating presence of an all-day event.
-        for (int day = 0; day < mNumDays; day++) {
-            mEarliestStartHour[day] = 25; // some big number
-            mHasAllDayEvent[day] = false;
-        }
-
         int maxAllDayEvents = mMaxAlldayEvents;
 
         // The min is where 24 hours cover the entire visible area
@@ -1100,9 +1118,16 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
         mNumHours = mGridAreaHeight / (mCellHeight + mDayViewResources.getHourGap());
         mEventGeometry.setHourHeight(mCellHeight);
 
-        final long minimumDurationMillis = (long)
-                (mDayViewResources.getMinEventHeight() * DateUtils.MINUTE_IN_MILLIS / (mCellHeight / 60.0f));
-        EventLayout.computePositions(mEvents, minimumDurationMillis);
+        final long minimumDurationMillis = computeMinimumDurationMillis();
+        // Rectangles from the last frame no longer match the new sizes
+        mEventHitIndex.invalidate();
+        // During a pinch-zoom only minimumDurationMillis changes, which
+        // usually does not change which events overlap.
+        if (mEventLayoutCache.computePositions(mEvents, mEventsGeneration, minimumDurationMillis,
+                mMaxVisibleEventColumns)) {
+            mEventGeometry.invalidateEventRects();
+            updateOverflowMarkers();
+        }
 
         // Compute the top of our reachable view
         mMaxViewStartY = mDayViewResources.getHourGap() + 24 * (mCellHeight + mDayViewResources.getHourGap()) - mGridAreaHeight;
@@ -1139,6 +1164,15 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
         mPopup.setHeight(WindowManager.LayoutParams.WRAP_CONTENT);
     }
 
+    /**
+     * @return the duration of the shortest event rectangle at the current cell
+     *         height, which is how long events are stretched to when laid out
+     */
+    private long computeMinimumDurationMillis() {
+        return (long) (mDayViewResources.getMinEventHeight() * DateUtils.MINUTE_IN_MILLIS
+                / (mCellHeight / 60.0f));
+    }
+
     /**
      * Initialize the state for another view. The given view is one that has its
      * own bitmap and will use an animation to replace the current view. The
@@ -1600,11 +1634,51 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
 
     public void clearCachedEvents() {
         mLastReloadMillis = 0;
+        mEventLoader.clearCachedEvents();
+    }
+
+    /**
+     * Brings the shown events up to date with a change to the calendar. If
+     * the delta was computed for a range that holds the days on display,
+     * only the overlap groups it touches there are laid out again. Otherwise
+     * the days are loaded again if they are affected, now if the view is
+     * shown and else the next time it is. Call on the UI thread.
+     */
+    public void applyEventDelta(EventDelta delta) {
+        if (delta.isEmpty() || !delta.touches(mFirstJulianDay, mNumDays)) {
+            return;
+        }
+        final EventLayoutSnapshot snapshot = mEventLayoutSnapshot;
+        if (snapshot == null || mLoadedFirstJulianDay != mFirstJulianDay
+                || snapshot.getFirstJulianDay() < delta.getFirstJulianDay()
+                || snapshot.getFirstJulianDay() + snapshot.getNumDays()
+                        > delta.getFirstJulianDay() + delta.getNumDays()) {
+            mLastReloadMillis = 0;
+            if (isShown()) {
+                reloadEvents();
+            }
+            return;
+        }
+
+        final EventLayout selected = mSelectedEvent;
+        delta = delta.restrictTo(snapshot.getFirstJulianDay(), snapshot.getNumDays());
+        if (delta.isEmpty()) {
+            return;
+        }
+        onEventLayoutLoaded(snapshot.withDelta(delta, mEventsGeneration + 1,
+                computeMinimumDurationMillis(), mMaxVisibleEventColumns), false);
+
+        // Keep the selection on the same event if it is still there. Events
+        // that changed are new objects, so their selection is dropped.
+        mPrevSelectedEvent = null;
+        mSelectedEvents.clear();
+        setSelectedEvent(selected == null ? null : findLayout(selected.getEvent()));
     }
 
     private final Runnable mCancelCallback = new Runnable() {
         public void run() {
-            clearCachedEvents();
+            // Load again next time, the prefetched windows are still good
+            mLastReloadMillis = 0;
         }
     };
     private DayViewRenderer mDayViewRenderer;
@@ -1638,136 +1712,139 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
         }
         mLastReloadMillis = millis;
 
-        // load events in the background
+        // A window prefetched next to the previous one can be shown at once
+        EventLayoutSnapshot prefetched = mEventLoader.takePrefetchedLayout(mFirstJulianDay,
+                mNumDays);
+        if (prefetched != null) {
+            onEventLayoutLoaded(prefetched, false);
+            return;
+        }
+
+        // load and lay out events in the background, those in the hours on
+        // screen first
         // mContext.startProgressSpinner();
-        final ArrayList<Event> events = new ArrayList<Event>();
-        mEventLoader.loadEventsInBackground(mNumDays, events, mFirstJulianDay, new Runnable() {
-            public void run() {
-                boolean fadeinEvents = mFirstJulianDay != mLoadedFirstJulianDay;
-                
-                mEvents.clear();
-                for (Event event : events) {
-                    mEvents.add(new EventLayout(event));
+        final int top = mDayViewResources.getHourGap();
+        final int viewEndY = mViewStartY + mViewHeight
+                - mDayViewResources.getDayHeaderHeight(mNumDays) - mAlldayHeight;
+        int focusStartMinute = mEventGeometry.computeFirstVisibleEndMinute(top, mViewStartY);
+        int focusEndMinute = mEventGeometry.computeLastVisibleStartMinute(top, viewEndY);
+        if (focusEndMinute < focusStartMinute) {
+            // Not measured yet
+            focusStartMinute = 0;
+            focusEndMinute = MINUTES_PER_DAY;
+        }
+        final int generation = mEventsGeneration + 1;
+        mEventLoader.loadEventLayoutInBackground(mNumDays, mFirstJulianDay, focusStartMinute,
+                focusEndMinute, generation, computeMinimumDurationMillis(),
+                mMaxVisibleEventColumns,
+                new DayViewEventLoader.EventLayoutCallback() {
+            public void onEventLayoutLoaded(EventLayoutSnapshot snapshot) {
+                final EventLayoutSnapshot shown = mEventLayoutSnapshot;
+                if (shown != null && shown.getGeneration() == generation
+                        && mLoadedFirstJulianDay == mFirstJulianDay
+                        && shown.getFirstJulianDay() == snapshot.getFirstJulianDay()) {
+                    // More of the load already shown
+                    updateEventLayout(snapshot);
+                    return;
                 }
-                mLoadedFirstJulianDay = mFirstJulianDay;
-               
-                mAllDayEvents.clear();
-                
+                // Only the first of several partial snapshots fades in
+                DayView.this.onEventLayoutLoaded(snapshot,
+                        mFirstJulianDay != mLoadedFirstJulianDay);
+            }
+        }, mCancelCallback);
+    }
 
-                // Create a shorter array for all day events
-                //share references between mEvents and mAllDayEvents 
-                for (EventLayout e : mEvents) {
-                    if (e.getEvent().drawAsAllday()) {
-                        mAllDayEvents.add(e);
-                    }
-                }
+    // Shows a later snapshot of the load on display. The dates are already
+    // worked out and the selection is kept.
+    private void updateEventLayout(EventLayoutSnapshot snapshot) {
+        final EventLayout selected = mSelectedEvent;
+        setEventLayoutSnapshot(snapshot);
+        mRemeasure = true;
+        mComputeSelectedEvents = true;
+        mPrevSelectedEvent = null;
+        mSelectedEvents.clear();
+        setSelectedEvent(selected == null ? null : findLayout(selected.getEvent()));
+        invalidate();
+    }
 
-                // New events, new layouts
-                mEventRenderer.prepareForEvents(events);
+    // Returns the layout of the given event in the events shown, or null
+    private EventLayout findLayout(Event event) {
+        for (EventLayout layout : mEvents) {
+            if (layout.getEvent() == event) {
+                return layout;
+            }
+        }
+        return null;
+    }
 
-                if (mAllDayLayouts == null || mAllDayLayouts.length < mAllDayEvents.size()) {
-                    mAllDayLayouts = new StaticLayout[events.size()];
-                } else {
-                    Arrays.fill(mAllDayLayouts, null);
-                }
+    private void onEventLayoutLoaded(EventLayoutSnapshot snapshot, boolean fadeinEvents) {
+        setEventLayoutSnapshot(snapshot);
+        mLoadedFirstJulianDay = mFirstJulianDay;
 
-                computeEventRelations();
+        mRemeasure = true;
+        mComputeSelectedEvents = true;
+        recalc();
 
-                mRemeasure = true;
-                mComputeSelectedEvents = true;
-                recalc();
-
-                // Start animation to cross fade the events
-                if (fadeinEvents) {
-                    if (mEventsCrossFadeAnimation == null) {
-                        mEventsCrossFadeAnimation =
-                                ObjectAnimator.ofInt(DayView.this, "EventsAlpha", 0, 255);
-                        mEventsCrossFadeAnimation.setDuration(EVENTS_CROSS_FADE_DURATION);
-                    }
-                    mEventsCrossFadeAnimation.start();
-                } else {
-                    invalidate();
-                }
+        // Start animation to cross fade the events
+        if (fadeinEvents) {
+            if (mEventsCrossFadeAnimation == null) {
+                mEventsCrossFadeAnimation =
+                        ObjectAnimator.ofInt(DayView.this, "EventsAlpha", 0, 255);
+                mEventsCrossFadeAnimation.setDuration(EVENTS_CROSS_FADE_DURATION);
             }
-        }, mCancelCallback);
-    }
-
-    public void stopEventsAnimation() {
-        if (mEventsCrossFadeAnimation != null) {
-            mEventsCrossFadeAnimation.cancel();
+            mEventsCrossFadeAnimation.start();
+        } else {
+            invalidate();
         }
-        mEventsAlpha = 255;
     }
 
-    private void computeEventRelations() {
-        // Compute the layout relation between each event before measuring cell
-        // width, as the cell width should be adjusted along with the relation.
-        //
-        // Examples: A (1:00pm - 1:01pm), B (1:02pm - 2:00pm)
-        // We should mark them as "overwapped". Though they are not overwapped
-        // logically, but
-        // minimum cell height implicitly expands the cell height of A and it
-        // should look like
-        // (1:00pm - 1:15pm) after the cell height adjustment.
-
-        // Compute the space needed for the all-day events, if any.
-        // Make a pass over all the events, and keep track of the maximum
-        // number of all-day events in any one day. Also, keep track of
-        // the earliest event in each day.
-        int maxAllDayEvents = 0;
-        final ArrayList<EventLayout> events = mEvents;
-        final int len = events.size();
-        // Num of all-day-events on each day.
-        final int eventsCount[] = new int[mLastJulianDay - mFirstJulianDay + 1];
-        Arrays.fill(eventsCount, 0);
-        for (int ii = 0; ii < len; ii++) {
-            Event event = events.get(ii).getEvent();
-            if (event.getStartDay() > mLastJulianDay || event.getEndDay() < mFirstJulianDay) {
-                continue;
-            }
-            if (event.drawAsAllday()) {
-                // Count all the events being drawn as allDay events
-                final int firstDay = Math.max(event.getStartDay(), mFirstJulianDay);
-                final int lastDay = Math.min(event.getEndDay(), mLastJulianDay);
-                for (int day = firstDay; day <= lastDay; day++) {
-                    final int count = ++eventsCount[day - mFirstJulianDay];
-                    if (maxAllDayEvents < count) {
-                        maxAllDayEvents = count;
-                    }
-                }
+    /**
+     * Takes over the events and layouts computed by the loader. The layouts,
+     * the all-day subset and the column assignments are used as they are.
+     */
+    private void setEventLayoutSnapshot(EventLayoutSnapshot snapshot) {
+        mEventLayoutSnapshot = snapshot;
+        mEvents = snapshot.getLayouts();
+        mAllDayEvents = snapshot.getAllDayLayouts();
+        mEventDayIndex = snapshot.getDayIndex();
+        mEventsGeneration = snapshot.getGeneration();
+        mEventLayoutCache = snapshot.getLayoutCache();
+        updateOverflowMarkers();
+
+        // New events, new layouts
+        ArrayList<Event> events = snapshot.getEvents();
+        mEventRenderer.prepareForEvents(events);
+
+        if (mAllDayLayouts == null || mAllDayLayouts.length < mAllDayEvents.size()) {
+            mAllDayLayouts = new StaticLayout[events.size()];
+        } else {
+            Arrays.fill(mAllDayLayouts, null);
+        }
 
-                int daynum = event.getStartDay() - mFirstJulianDay;
-                int durationDays = event.getEndDay() - event.getStartDay() + 1;
-                if (daynum < 0) {
-                    durationDays += daynum;
-                    daynum = 0;
-                }
-                if (daynum + durationDays > mNumDays) {
-                    durationDays = mNumDays - daynum;
-                }
-                for (int day = daynum; durationDays > 0; day++, durationDays--) {
-                    mHasAllDayEvent[day] = true;
-                }
+        // The snapshot was built for the days requested, which are the days
+        // shown unless the view has been moved on since.
+        final int dayOffset = snapshot.getFirstJulianDay() - mFirstJulianDay;
+        for (int day = 0; day < mNumDays; day++) {
+            final int snapshotDay = day + dayOffset;
+            if (snapshotDay >= 0 && snapshotDay < snapshot.getNumDays()) {
+                mEarliestStartHour[day] = snapshot.getEarliestStartHour(snapshotDay);
+                mHasAllDayEvent[day] = snapshot.hasAllDayEvent(snapshotDay);
             } else {
-                int daynum = event.getStartDay() - mFirstJulianDay;
-                int hour = event.getStartTime() / 60;
-                if (daynum >= 0 && hour < mEarliestStartHour[daynum]) {
-                    mEarliestStartHour[daynum] = hour;
-                }
-
-                // Also check the end hour in case the event spans more than
-                // one day.
-                daynum = event.getEndDay() - mFirstJulianDay;
-                hour = event.getEndTime() / 60;
-                if (daynum < mNumDays && hour < mEarliestStartHour[daynum]) {
-                    mEarliestStartHour[daynum] = hour;
-                }
+                mEarliestStartHour[day] = 25; // some big number
+                mHasAllDayEvent[day] = false;
             }
         }
-        mMaxAlldayEvents = maxAllDayEvents;
+        mMaxAlldayEvents = snapshot.getMaxAllDayEvents();
         initAllDayHeights();
     }
 
+    public void stopEventsAnimation() {
+        if (mEventsCrossFadeAnimation != null) {
+            mEventsCrossFadeAnimation.cancel();
+        }
+        mEventsAlpha = 255;
+    }
+
     @SuppressLint("WrongCall")
 	@Override
     protected void onDraw(Canvas canvas) {
@@ -2072,14 +2149,18 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
         drawGridBackground(r, canvas, p);
         drawHours(r, canvas, p);
 
+        // Collect the event rectangles drawn below for hit testing
+        final int viewEndY = mViewStartY + mViewHeight
+                - mDayViewResources.getDayHeaderHeight(mNumDays) - mAlldayHeight;
+        mEventHitIndex.reset(mFirstJulianDay, mNumDays,
+                mCellHeight + mDayViewResources.getHourGap(), mViewStartY, viewEndY);
+
         // Draw each day
         int cell = mFirstJulianDay;
         p.setAntiAlias(false);
         int alpha = p.getAlpha();
         p.setAlpha(mEventsAlpha);
         for (int day = 0; day < mNumDays; day++, cell++) {
-            // TODO Wow, this needs cleanup. drawEvents loop through all the
-            // events on every call.
             drawEvents(cell, day, mDayViewResources.getHourGap(), canvas, p);
             // If this is today
             if (cell == mTodayJulianDay) {
@@ -2589,18 +2670,23 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
         selectionArea.left = left;
         selectionArea.right = selectionArea.left + cellWidth;
 
-        final ArrayList<EventLayout> events = mEvents;
-        int numEvents = events.size();
         EventGeometry geometry = mEventGeometry;
 
         final int viewEndY = mViewStartY + mViewHeight
                 - mDayViewResources.getDayHeaderHeight(mNumDays) - mAlldayHeight;
 
+        // Only visit the events of this day that can reach the visible hours
+        final EventDayIndex events = mEventDayIndex;
+        final int startIndex = events.getFirstEndingAtOrAfter(date,
+                geometry.computeFirstVisibleEndMinute(top, mViewStartY));
+        final int endIndex = events.getEndStartingAtOrBefore(date,
+                geometry.computeLastVisibleStartMinute(top, viewEndY));
+
         int alpha = eventTextPaint.getAlpha();
         eventTextPaint.setAlpha(mEventsAlpha);
-        for (int i = 0; i < numEvents; i++) {
+        for (int i = startIndex; i < endIndex; i++) {
             EventLayout event = events.get(i);
-            if (!geometry.computeEventRect(date, left, top, cellWidth, event)) {
+            if (!geometry.computeEventRect(date, left, top, cellWidth, events, i)) {
                 continue;
             }
 
@@ -2608,6 +2694,7 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
             if (event.getBottom() < mViewStartY || event.getTop() > viewEndY) {
                 continue;
             }
+            mEventHitIndex.add(date, event);
 
             if (date == mSelectionDay && !mSelectionAllday && mComputeSelectedEvents
                     && geometry.eventIntersectsSelection(event, selectionArea)) {
@@ -2621,6 +2708,22 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
             
             mEventRenderer.drawEvent(event, canvas, p, eventTextPaint, mViewStartY, viewEndY, event == mClickedEvent && mClickedEvent != null, mSelectionMode == SELECTION_PRESSED || mSelectionMode == SELECTION_SELECTED);
         }
+
+        final int overflowDay = date - mOverflowFirstJulianDay;
+        if (overflowDay >= 0 && overflowDay < mOverflowNumDays) {
+            final int endMarker = mOverflowStarts[overflowDay + 1];
+            for (int i = mOverflowStarts[overflowDay]; i < endMarker; i++) {
+                OverflowMarker marker = mOverflowMarkers.get(i);
+                RectF r = marker.mRect;
+                if (!geometry.computeOverflowRect(date, left, top, cellWidth, marker.mAnchor, r)) {
+                    continue;
+                }
+                if (r.bottom < mViewStartY || r.top > viewEndY) {
+                    continue;
+                }
+                drawMoreEvents(canvas, marker.mCount, r, p);
+            }
+        }
         eventTextPaint.setAlpha(alpha);
 
         if (date == mSelectionDay && !mSelectionAllday && isFocused()
@@ -2629,6 +2732,88 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
         }
     }
 
+    /**
+     * The events of one overflow group that are drawn on one day, shown as a
+     * single "+N" marker on that day.
+     */
+    private static class OverflowMarker {
+        // The earliest hidden event of the group drawn on the day
+        final EventLayout mAnchor;
+        int mCount;
+        // Where the marker was last drawn
+        final RectF mRect = new RectF();
+
+        OverflowMarker(EventLayout anchor) {
+            mAnchor = anchor;
+        }
+    }
+
+    // Collects the overflow groups of mEvents and splits them into one marker
+    // per day, so that a group crossing midnight only counts the events each
+    // day actually hides.
+    private void updateOverflowMarkers() {
+        mEventOverflows.clear();
+        for (EventLayout event : mEvents) {
+            EventOverflow overflow = event.getOverflow();
+            if (overflow != null && overflow.getFirstHiddenEvent() == event) {
+                mEventOverflows.add(overflow);
+            }
+        }
+
+        final EventDayIndex index = mEventDayIndex;
+        final int numDays = index.getNumDays();
+        mOverflowFirstJulianDay = index.getFirstJulianDay();
+        mOverflowNumDays = numDays;
+        if (mOverflowStarts.length < numDays + 1) {
+            mOverflowStarts = new int[numDays + 1];
+        }
+        mOverflowMarkers.clear();
+        for (int day = 0; day < numDays; day++) {
+            mOverflowStarts[day] = mOverflowMarkers.size();
+            final int date = mOverflowFirstJulianDay + day;
+            for (EventOverflow overflow : mEventOverflows) {
+                OverflowMarker marker = null;
+                for (EventLayout hidden : overflow.getHiddenEvents()) {
+                    Event event = hidden.getEvent();
+                    if (event.drawAsAllday() || event.getStartDay() > date || event.getEndDay() < date) {
+                        continue;
+                    }
+                    if (marker == null) {
+                        marker = new OverflowMarker(hidden);
+                        mOverflowMarkers.add(marker);
+                    }
+                    marker.mCount++;
+                }
+            }
+        }
+        mOverflowStarts[numDays] = mOverflowMarkers.size();
+    }
+
+    // Draws the "box +n" text for overlapping events that did not get a column.
+    // The box goes in the top right corner of the marker rectangle.
+    protected void drawMoreEvents(Canvas canvas, int remainingEvents, RectF marker, Paint p) {
+        String text = String.format(mDayViewResources.getMoreEventsMonthText(remainingEvents), remainingEvents);
+        p.setTextSize(mDayViewResources.getEventTextFontSize(mNumDays));
+        int squareWidth = mDayViewResources.getEventSquareWidth();
+        int x = (int) (marker.right - p.measureText(text) - squareWidth
+                - mDayViewResources.getEventLinePadding() - mDayViewResources.getEventTextRightMargin());
+        int y = (int) marker.top + mDayViewResources.getEventTextTopMargin();
+        Rect r = mRect;
+        r.top = y;
+        r.left = x;
+        r.bottom = y + squareWidth;
+        r.right = x + squareWidth;
+        p.setColor(mDayViewResources.getMoreEventsTextColor());
+        p.setStrokeWidth(mDayViewResources.getEventRectStrokeWidth());
+        p.setStyle(Style.STROKE);
+        canvas.drawRect(r, p);
+        p.setStyle(Style.FILL);
+
+        y += squareWidth;
+        x += squareWidth + mDayViewResources.getEventLinePadding();
+        canvas.drawText(text, x, y, p);
+    }
+
     // Computes the "nearest" neighbor event in four directions (left, right,
     // up, down) for each of the events in the mSelectedEvents array.
     private void computeNeighbors() {
@@ -3751,11 +3936,11 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
 
     private void findSelectedEvent(int x, int y) {
         int date = mSelectionDay;
-        int cellWidth = mCellWidth;
-        ArrayList<EventLayout> events = mEvents;
-        int numEvents = events.size();
-        int left = computeDayLeftPosition(mSelectionDay - mFirstJulianDay);
-        int top = 0;
+        // The same day origin as drawEvents(), so both hit paths agree
+        final int dayIndex = mSelectionDay - mFirstJulianDay;
+        int left = computeDayLeftPosition(dayIndex) + 1;
+        int cellWidth = computeDayLeftPosition(dayIndex + 1) - left + 1;
+        int top = mDayViewResources.getHourGap();
         setSelectedEvent(null);
 
         mSelectedEvents.clear();
@@ -3770,8 +3955,8 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
                 // Leave a gap for the 'box +n' text
                 maxUnexpandedColumn--;
             }
-            events = mAllDayEvents;
-            numEvents = events.size();
+            ArrayList<EventLayout> events = mAllDayEvents;
+            int numEvents = events.size();
             for (int i = 0; i < numEvents; i++) {
                 EventLayout event = events.get(i);
                 if (!event.getEvent().drawAsAllday() ||
@@ -3825,17 +4010,28 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
 
         EventGeometry geometry = mEventGeometry;
 
-        for (int i = 0; i < numEvents; i++) {
-            EventLayout event = events.get(i);
-            // Compute the event rectangle.
-            if (!geometry.computeEventRect(date, left, top, cellWidth, event)) {
-                continue;
-            }
+        final boolean fromHitIndex = !mRemeasure
+                && mEventHitIndex.covers(mFirstJulianDay, date, region.top, region.bottom);
+        if (fromHitIndex) {
+            // Every event that can intersect the region was drawn in the
+            // last frame, so use the rectangles it drew on this day.
+            mEventHitIndex.findIntersecting(date, region, mSelectedEvents);
+        } else {
+            // Only the events drawn on the selected day can be hit
+            final EventDayIndex events = mEventDayIndex;
+            final int endIndex = events.getEnd(date);
+            for (int i = events.getStart(date); i < endIndex; i++) {
+                EventLayout event = events.get(i);
+                // Compute the event rectangle.
+                if (!geometry.computeEventRect(date, left, top, cellWidth, event)) {
+                    continue;
+                }
 
-            // If the event intersects the selection region, then add it to
-            // mSelectedEvents.
-            if (geometry.eventIntersectsSelection(event, region)) {
-                mSelectedEvents.add(event);
+                // If the event intersects the selection region, then add it to
+                // mSelectedEvents.
+                if (geometry.eventIntersectsSelection(event, region)) {
+                    mSelectedEvents.add(event);
+                }
             }
         }
 
@@ -3847,7 +4043,14 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
             float minDist = mViewWidth + mViewHeight; // some large distance
             for (int index = 0; index < len; index++) {
                 EventLayout ev = mSelectedEvents.get(index);
-                float dist = geometry.pointToEvent(x, y, ev);
+                float dist;
+                if (fromHitIndex) {
+                    final RectF r = mHitRect;
+                    mEventHitIndex.getMatchRect(index, r);
+                    dist = geometry.pointToRect(x, y, r.left, r.top, r.right, r.bottom);
+                } else {
+                    dist = geometry.pointToEvent(x, y, ev);
+                }
                 if (dist < minDist) {
                     minDist = dist;
                     closestEvent = ev;
@@ -4154,6 +4357,18 @@ public class DayView extends View implements ScaleGestureDetector.OnScaleGesture
         return mEventBus;
     }
     
+    /**
+     * Limits how many overlapping events are drawn side by side. The rest of
+     * an overlap group is drawn as a single "+N" marker.
+     *
+     * @param maxColumns the column limit, or 0 to give every event a column
+     */
+    public void setMaxVisibleEventColumns(int maxColumns) {
+        mMaxVisibleEventColumns = Math.max(maxColumns, 0);
+        mRemeasure = true;
+        invalidate();
+    }
+
     public void setEventRenderer(EventRenderer r){
     	mEventRenderer = r;
     }
@@ -19,38 +19,112 @@ limitations under the License.
 
 package com.google.code.yadview;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-import android.os.Handler;
 import android.os.Process;
-import android.util.Log;
+
+import com.google.code.yadview.impl.AndroidLoaderThreadFactory;
+import com.google.code.yadview.impl.HandlerLoaderScheduler;
 
 
 public class DayViewEventLoader {
 
-    private Handler mHandler = new Handler();
-    private AtomicInteger mSequenceNumber = new AtomicInteger();
+    private final LoaderScheduler mScheduler;
+    private final LoaderThreadFactory mThreadFactory;
+    // Stays true while the most recent load of the visible range is wanted.
+    // Replaced, and the old one cancelled, by every new load.
+    private final AtomicReference<CancelablePredicate> mVisibleLoad =
+            new AtomicReference<CancelablePredicate>();
+
+    // Numbers the loadEventsInBackground() requests. We don't care if it
+    // wraps around because versions are compared by difference.
+    private final AtomicInteger mLoadVersion = new AtomicInteger();
+    // The newest result of loadEventsInBackground()
+    private final AtomicReference<EventLoadResult> mLoadedEvents =
+            new AtomicReference<EventLoadResult>();
 
-    private LinkedBlockingQueue<LoadRequest> mLoaderQueue;
-    private LoaderThread mLoaderThread;
+    // The lanes in decreasing order of priority. A lane only starts a request
+    // while the lanes above it are idle.
+    private final LoaderLane mVisibleLane;
+    private final LoaderLane mPrefetchLane;
+    private final LoaderLane mDayMarkerLane;
     private EventResource mEventResource;
 
-    private static interface LoadRequest {
-        public void processRequest(DayViewEventLoader eventLoader);
-        public void skipRequest(DayViewEventLoader eventLoader);
-    }
+    // How often a slow load shows the events it has so far
+    private static final long PARTIAL_LAYOUT_INTERVAL_MILLIS = 100;
+
+    // How long the events of a completed load are reused for the same range
+    private static final long RECENT_LOAD_MILLIS = 2000;
+    private static final int MAX_RECENT_LOADS = 2;
+
+    // Number of neighbouring windows kept by the prefetcher
+    private static final int MAX_PREFETCHED_WINDOWS = 4;
 
-    private static class ShutdownRequest implements LoadRequest {
-        public void processRequest(DayViewEventLoader eventLoader) {
+    // Snapshots of the windows next to recently loaded ones, keyed by
+    // windowKey(). Guarded by itself.
+    private final LinkedHashMap<Long, EventLayoutSnapshot> mPrefetched =
+            new LinkedHashMap<Long, EventLayoutSnapshot>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, EventLayoutSnapshot> eldest) {
+            return size() > MAX_PREFETCHED_WINDOWS;
         }
+    };
+    // Bumped by clearCachedEvents() and invalidateEvents() so loads already
+    // running are neither stored, remembered nor joined
+    private int mPrefetchEpoch;
 
-        public void skipRequest(DayViewEventLoader eventLoader) {
+    // The latest load of the visible range, which callers asking for the
+    // same days may join. Guarded by this.
+    private LoadEventLayoutRequest mLayoutRequest;
+
+    // The events of the last few completed loads, keyed by windowKey(), so
+    // a second request for the same days right after does not query again.
+    // Guarded by mPrefetched.
+    private final LinkedHashMap<Long, RecentLoad> mRecentLoads =
+            new LinkedHashMap<Long, RecentLoad>(4, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, RecentLoad> eldest) {
+            return size() > MAX_RECENT_LOADS;
+        }
+    };
+
+    // Set between stopBackgroundThread() and startBackgroundThread(). Guarded
+    // by mPrefetched.
+    private boolean mPaused;
+
+    // How long to keep the workers and caches after stopBackgroundThread()
+    private static final long DEFAULT_RETAIN_MILLIS = 30 * 1000;
+    private long mRetainMillis = DEFAULT_RETAIN_MILLIS;
+
+    private static class RecentLoad {
+        final List<Event> events;
+        final long loadedAtMillis;
+
+        RecentLoad(List<Event> events, long loadedAtMillis) {
+            this.events = events;
+            this.loadedAtMillis = loadedAtMillis;
         }
     }
 
+    private static interface LoadRequest {
+        public void processRequest(DayViewEventLoader eventLoader);
+        public void skipRequest(DayViewEventLoader eventLoader);
+
+        /**
+         * @return true if this request makes the given request, still waiting
+         *         in the same lane, unnecessary
+         */
+        public boolean replaces(LoadRequest pending);
+    }
+
     /**
      *
      * Code for handling requests to get whether days have an event or not
@@ -61,7 +135,8 @@ public class DayViewEventLoader {
         public int startDay;
         public int numDays;
         public boolean[] eventDays;
-        public Runnable uiCallback;
+        // Our own callback followed by those of the requests we replaced
+        public ArrayList<Runnable> uiCallbacks = new ArrayList<Runnable>();
 		private EventResource mResource;
 
         public LoadEventDaysRequest(int startDay, int numDays, boolean[] eventDays,
@@ -75,7 +150,7 @@ public class DayViewEventLoader {
             this.startDay = startDay;
             this.numDays = numDays;
             this.eventDays = eventDays;
-            this.uiCallback = uiCallback;
+            this.uiCallbacks.add(uiCallback);
             mResource = eventResource;
         }
 
@@ -85,37 +160,55 @@ public class DayViewEventLoader {
         	
         	//which DAYS have events
         	//not a cancellable request
-        	
-        	//do this inefficiently for now..
-        	for(int i = 0; i < numDays; i++){
-        		List<Event> list = mResource.get(startDay + i,1, Predicate.TRUE);
-        		eventDays[i] = list.size() > 0;
-        	}
+        	mResource.getEventDays(startDay, numDays, eventDays, Predicate.TRUE);
 
-            eventLoader.mHandler.post(uiCallback);
+            for (Runnable uiCallback : uiCallbacks) {
+                eventLoader.mScheduler.post(uiCallback);
+            }
         }
 
         @Override
         public void skipRequest(DayViewEventLoader eventLoader) {
+            // Only called when the loader stops, or after replaces() handed
+            // our callbacks to the request that fills in the same days.
+        }
+
+        @Override
+        public boolean replaces(LoadRequest pending) {
+            if (!(pending instanceof LoadEventDaysRequest)) {
+                return false;
+            }
+            LoadEventDaysRequest other = (LoadEventDaysRequest) pending;
+            if (other.eventDays != eventDays || other.startDay != startDay
+                    || other.numDays != numDays) {
+                return false;
+            }
+            for (Runnable uiCallback : other.uiCallbacks) {
+                if (!uiCallbacks.contains(uiCallback)) {
+                    uiCallbacks.add(uiCallback);
+                }
+            }
+            return true;
         }
     }
 
     private static class LoadEventsRequest implements LoadRequest {
 
-        protected int id;
+        protected CancelablePredicate continueLoadingPredicate;
+        protected int version;
         protected int startDay;
         protected int numDays;
-        protected ArrayList<Event> events;
         protected Runnable successCallback;
         protected Runnable cancelCallback;
         private EventResource mEventResource;
 
-        public LoadEventsRequest(int id, int startDay, int numDays, ArrayList<Event> events,
-                final Runnable successCallback, final Runnable cancelCallback, EventResource eventResource) {
-            this.id = id;
+        public LoadEventsRequest(CancelablePredicate continueLoadingPredicate, int version,
+                int startDay, int numDays, final Runnable successCallback,
+                final Runnable cancelCallback, EventResource eventResource) {
+            this.continueLoadingPredicate = continueLoadingPredicate;
+            this.version = version;
             this.startDay = startDay;
             this.numDays = numDays;
-            this.events = events;
             this.successCallback = successCallback;
             this.cancelCallback = cancelCallback;
             this.mEventResource = eventResource;
@@ -123,129 +216,878 @@ public class DayViewEventLoader {
 
         public void processRequest(final DayViewEventLoader eventLoader) {
             
+            List<Event> events = mEventResource.get(startDay, numDays, continueLoadingPredicate);
+
+            // Check if we are still the most recent request.
+            if (continueLoadingPredicate.value()
+                    && eventLoader.publish(new EventLoadResult(version, startDay, numDays, events))) {
+                eventLoader.mScheduler.post(successCallback);
+            } else {
+                eventLoader.mScheduler.post(cancelCallback);
+            }
+        }
+
+        public void skipRequest(DayViewEventLoader eventLoader) {
+            eventLoader.mScheduler.post(cancelCallback);
+        }
+
+        public boolean replaces(LoadRequest pending) {
+            // Only the most recent load of the visible range is wanted
+            return true;
+        }
+    }
+
+    /**
+     * Receives the result of {@link DayViewEventLoader#loadEventLayoutInBackground}
+     * on the UI thread. A slow load may first deliver snapshots of the events
+     * loaded so far, each a superset of the one before, and then the complete
+     * one. All the snapshots of a load have the same generation, and each
+     * shares the layouts of the overlap groups that did not change with the
+     * one before.
+     */
+    public static interface EventLayoutCallback {
+        public void onEventLayoutLoaded(EventLayoutSnapshot snapshot);
+    }
+
+    /**
+     * One caller waiting for a {@link LoadEventLayoutRequest}, with the layout
+     * parameters of its view.
+     */
+    private static class LayoutSubscriber {
+        final int generation;
+        final long minimumDurationMillis;
+        final int maxVisibleColumns;
+        final EventLayoutCallback successCallback;
+        final Runnable cancelCallback;
+        // The last snapshot delivered and how many of the load's events it
+        // holds. Only used by the worker running the load.
+        private EventLayoutSnapshot mSnapshot;
+        private int mNumDelivered;
+
+        LayoutSubscriber(int generation, long minimumDurationMillis, int maxVisibleColumns,
+                EventLayoutCallback successCallback, Runnable cancelCallback) {
+            this.generation = generation;
+            this.minimumDurationMillis = minimumDurationMillis;
+            this.maxVisibleColumns = maxVisibleColumns;
+            this.successCallback = successCallback;
+            this.cancelCallback = cancelCallback;
+        }
+
+        // Lays out the events for this subscriber and posts the snapshot to
+        // it. After the first snapshot only the events that arrived since the
+        // last one are merged in, and only the overlap groups they join are
+        // laid out again. A partial snapshot whose load was cancelled in the
+        // meantime is dropped; the final delivery calls the cancel callback
+        // instead, so the subscriber always hears how the load ended.
+        void deliver(DayViewEventLoader eventLoader, List<Event> events, int startDay,
+                int numDays, final Predicate continueLoading, final boolean isFinal) {
+            final EventLayoutSnapshot snapshot;
+            if (mSnapshot == null) {
+                snapshot = EventLayoutSnapshot.build(inDisplayOrder(events), startDay, numDays,
+                        generation, minimumDurationMillis, maxVisibleColumns);
+            } else if (mNumDelivered < events.size()) {
+                snapshot = mSnapshot.withAddedEvents(
+                        events.subList(mNumDelivered, events.size()), generation,
+                        minimumDurationMillis, maxVisibleColumns);
+            } else {
+                // Nothing new since the last one, which was already posted
+                if (isFinal) {
+                    eventLoader.mScheduler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!continueLoading.value()) {
+                                cancelCallback.run();
+                            }
+                        }
+                    });
+                }
+                return;
+            }
+            mSnapshot = snapshot;
+            mNumDelivered = events.size();
+            eventLoader.mScheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (continueLoading.value()) {
+                        successCallback.onEventLayoutLoaded(snapshot);
+                    } else if (isFinal) {
+                        cancelCallback.run();
+                    }
+                }
+            });
+        }
+    }
+
+    private static class LoadEventLayoutRequest implements LoadRequest {
+
+        protected CancelablePredicate continueLoadingPredicate;
+        protected int startDay;
+        protected int numDays;
+        // The minutes of the day on screen, whose events are loaded first
+        protected int focusStartMinute;
+        protected int focusEndMinute;
+        // The cache epoch the load started in. It is only joined, and its
+        // events only remembered, while that epoch lasts.
+        protected int epoch;
+        private EventResource mEventResource;
+        // Everyone waiting for this load. Guarded by itself; set to null once
+        // the result has been handed out so latecomers start a new load.
+        private ArrayList<LayoutSubscriber> mSubscribers = new ArrayList<LayoutSubscriber>();
+
+        public LoadEventLayoutRequest(CancelablePredicate continueLoadingPredicate, int startDay,
+                int numDays, int focusStartMinute, int focusEndMinute, int epoch,
+                LayoutSubscriber subscriber, EventResource eventResource) {
+            this.continueLoadingPredicate = continueLoadingPredicate;
+            this.startDay = startDay;
+            this.numDays = numDays;
+            this.focusStartMinute = focusStartMinute;
+            this.focusEndMinute = focusEndMinute;
+            this.epoch = epoch;
+            this.mEventResource = eventResource;
+            mSubscribers.add(subscriber);
+        }
+
+        /**
+         * Adds another caller for the same range to this load.
+         *
+         * @return false if it is too late to join, because the load was
+         *         cancelled or has already been delivered
+         */
+        public boolean addSubscriber(LayoutSubscriber subscriber) {
+            synchronized (this) {
+                if (mSubscribers == null || continueLoadingPredicate.isCanceled()) {
+                    return false;
+                }
+                mSubscribers.add(subscriber);
+                return true;
+            }
+        }
+
+        private synchronized ArrayList<LayoutSubscriber> getSubscribers() {
+            if (mSubscribers == null) {
+                return new ArrayList<LayoutSubscriber>();
+            }
+            return new ArrayList<LayoutSubscriber>(mSubscribers);
+        }
+
+        private synchronized ArrayList<LayoutSubscriber> takeSubscribers() {
+            ArrayList<LayoutSubscriber> subscribers = mSubscribers;
+            mSubscribers = null;
+            return subscribers;
+        }
+
+        public void processRequest(final DayViewEventLoader eventLoader) {
+
+            // A range that was loaded a moment ago does not need loading again
+            List<Event> events = eventLoader.getRecentLoad(startDay, numDays);
+            if (events == null) {
+                events = load(eventLoader);
+            }
+            if (!continueLoadingPredicate.value()) {
+                skipRequest(eventLoader);
+                return;
+            }
+            eventLoader.putRecentLoad(startDay, numDays, events, epoch);
+
+            ArrayList<LayoutSubscriber> subscribers = takeSubscribers();
+            if (subscribers == null) {
+                return;
+            }
+            for (LayoutSubscriber subscriber : subscribers) {
+                subscriber.deliver(eventLoader, events, startDay, numDays,
+                        continueLoadingPredicate, true);
+            }
+
+            // Get the windows on either side ready for a swipe
+            LayoutSubscriber first = subscribers.get(0);
+            eventLoader.prefetch(startDay - numDays, numDays, first.generation,
+                    first.minimumDurationMillis, first.maxVisibleColumns);
+            eventLoader.prefetch(startDay + numDays, numDays, first.generation,
+                    first.minimumDurationMillis, first.maxVisibleColumns);
+        }
+
+        // Collects the events as they stream in, those in the focus hours
+        // first. If loading takes a while, shows what has arrived so far
+        // every PARTIAL_LAYOUT_INTERVAL_MILLIS.
+        private List<Event> load(final DayViewEventLoader eventLoader) {
+            final ArrayList<Event> events = new ArrayList<Event>();
+            mEventResource.get(startDay, numDays, focusStartMinute, focusEndMinute,
+                    new EventSink() {
+                private long mLastPostMillis = eventLoader.mScheduler.uptimeMillis();
+
+                @Override
+                public void onEvents(List<Event> batch) {
+                    events.addAll(batch);
+                    long now = eventLoader.mScheduler.uptimeMillis();
+                    if (now - mLastPostMillis < PARTIAL_LAYOUT_INTERVAL_MILLIS
+                            || !continueLoadingPredicate.value()) {
+                        return;
+                    }
+                    mLastPostMillis = now;
+                    for (LayoutSubscriber subscriber : getSubscribers()) {
+                        subscriber.deliver(eventLoader, events, startDay, numDays,
+                                continueLoadingPredicate, false);
+                    }
+                }
+            }, continueLoadingPredicate);
+            // In the order they came, which the subscribers count on
+            return events;
+        }
+
+        public void skipRequest(DayViewEventLoader eventLoader) {
+            ArrayList<LayoutSubscriber> subscribers = takeSubscribers();
+            if (subscribers == null) {
+                return;
+            }
+            for (LayoutSubscriber subscriber : subscribers) {
+                eventLoader.mScheduler.post(subscriber.cancelCallback);
+            }
+        }
+
+        public boolean replaces(LoadRequest pending) {
+            // Only the most recent load of the visible range is wanted
+            return true;
+        }
+    }
+
+    /**
+     * Loads and lays out a window next to the visible one and keeps the
+     * snapshot in the prefetch cache.
+     */
+    private static class PrefetchRequest implements LoadRequest {
+
+        protected int startDay;
+        protected int numDays;
+        protected int generation;
+        protected long minimumDurationMillis;
+        protected int maxVisibleColumns;
+        protected int epoch;
+        private EventResource mEventResource;
+
+        public PrefetchRequest(int startDay, int numDays, int generation,
+                long minimumDurationMillis, int maxVisibleColumns, int epoch,
+                EventResource eventResource) {
+            this.startDay = startDay;
+            this.numDays = numDays;
+            this.generation = generation;
+            this.minimumDurationMillis = minimumDurationMillis;
+            this.maxVisibleColumns = maxVisibleColumns;
+            this.epoch = epoch;
+            this.mEventResource = eventResource;
+        }
+
+        public void processRequest(final DayViewEventLoader eventLoader) {
+            if (eventLoader.isPrefetched(startDay, numDays, epoch)) {
+                return;
+            }
+
+            // Give up if the cache is cleared while we load
             Predicate continueLoadingPredicate = new Predicate() {
                 @Override
                 public boolean value() {
-                    return id == eventLoader.mSequenceNumber.get();
+                    return eventLoader.isPrefetchEpoch(epoch);
                 }
             };
-            
-            events.clear();
-            events.addAll(mEventResource.get(startDay, numDays, continueLoadingPredicate));
 
-            // Check if we are still the most recent request.
-            if (continueLoadingPredicate.value()) {
-                eventLoader.mHandler.post(successCallback);
-            } else {
-                eventLoader.mHandler.post(cancelCallback);
+            List<Event> events = mEventResource.get(startDay, numDays, continueLoadingPredicate);
+            if (!continueLoadingPredicate.value()) {
+                return;
             }
+            EventLayoutSnapshot snapshot = EventLayoutSnapshot.build(events, startDay,
+                    numDays, generation, minimumDurationMillis, maxVisibleColumns);
+            eventLoader.putPrefetched(snapshot, epoch);
         }
 
         public void skipRequest(DayViewEventLoader eventLoader) {
-            eventLoader.mHandler.post(cancelCallback);
+        }
+
+        public boolean replaces(LoadRequest pending) {
+            if (!(pending instanceof PrefetchRequest)) {
+                return false;
+            }
+            PrefetchRequest other = (PrefetchRequest) pending;
+            return other.startDay == startDay && other.numDays == numDays;
         }
     }
 
-    private static class LoaderThread extends Thread {
-        LinkedBlockingQueue<LoadRequest> mQueue;
-        DayViewEventLoader mEventLoader;
+    /**
+     * A queue of requests served by a fixed number of worker threads. Lanes
+     * are chained in order of priority: after taking a request a worker waits
+     * until every higher priority lane is idle before it starts. A request
+     * that has started is not stopped by one arriving in a higher lane, so a
+     * prefetch or day-marker scan can still be running alongside a visible
+     * load, calling the {@link EventResource} at the same time. Each new
+     * request may replace the requests still waiting in its lane (see
+     * {@link LoadRequest#replaces}), and a lane with a limit drops its oldest
+     * waiting request when full. A request that throws is reported to the
+     * {@link LoaderScheduler} and skipped, and its worker carries on.
+     */
+    private static final class LoaderLane {
+        private final String mName;
+        private final int mThreadPriority;
+        private final int mNumWorkers;
+        private final int mMaxPending;
+        private final LoaderLane mHigherLane;
+        private final DayViewEventLoader mEventLoader;
+
+        // All guarded by this
+        private final ArrayDeque<LoadRequest> mPending = new ArrayDeque<LoadRequest>();
+        private int mActive;
+        private boolean mRunning;
+        // Bumped on every start and shutdown so old workers know to exit
+        private int mGeneration;
 
-        public LoaderThread(LinkedBlockingQueue<LoadRequest> queue, DayViewEventLoader eventLoader) {
-            mQueue = queue;
+        LoaderLane(String name, int threadPriority, int numWorkers, int maxPending,
+                LoaderLane higherLane, DayViewEventLoader eventLoader) {
+            mName = name;
+            mThreadPriority = threadPriority;
+            mNumWorkers = numWorkers;
+            mMaxPending = maxPending;
+            mHigherLane = higherLane;
             mEventLoader = eventLoader;
         }
 
-        public void shutdown() {
-            try {
-                mQueue.put(new ShutdownRequest());
-            } catch (InterruptedException ex) {
-                // The put() method fails with InterruptedException if the
-                // queue is full. This should never happen because the queue
-                // has no limit.
-                Log.e("Cal", "LoaderThread.shutdown() interrupted!");
+        synchronized void start() {
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+            final int generation = ++mGeneration;
+            for (int i = 0; i < mNumWorkers; i++) {
+                mEventLoader.mThreadFactory.startWorker("DayViewEventLoader-" + mName + "-" + i,
+                        mThreadPriority, new LoaderWorker() {
+                            @Override
+                            public void run() {
+                                runWorker(generation);
+                            }
+
+                            @Override
+                            public boolean runOnce() {
+                                return runNext(generation);
+                            }
+
+                            @Override
+                            public boolean isStopped() {
+                                return isStoppedSince(generation);
+                            }
+                        });
             }
         }
 
-        @Override
-        public void run() {
-            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-            while (true) {
-                try {
-                    // Wait for the next request
-                    LoadRequest request = mQueue.take();
+        /**
+         * Stops the workers once they finish their current request and skips
+         * the requests still waiting.
+         */
+        void shutdown() {
+            synchronized (this) {
+                mRunning = false;
+                mGeneration++;
+            }
+            skipPending();
+        }
 
-                    // If there are a bunch of requests already waiting, then
-                    // skip all but the most recent request.
-                    while (!mQueue.isEmpty()) {
-                        // Let the request know that it was skipped
-                        request.skipRequest(mEventLoader);
+        /**
+         * Skips the requests still waiting, leaving the workers running.
+         */
+        void skipPending() {
+            ArrayList<LoadRequest> skipped;
+            synchronized (this) {
+                skipped = new ArrayList<LoadRequest>(mPending);
+                mPending.clear();
+                notifyAll();
+            }
+            for (LoadRequest request : skipped) {
+                request.skipRequest(mEventLoader);
+            }
+        }
 
-                        // Skip to the next request
-                        request = mQueue.take();
+        void enqueue(LoadRequest request) {
+            ArrayList<LoadRequest> skipped = new ArrayList<LoadRequest>();
+            synchronized (this) {
+                Iterator<LoadRequest> it = mPending.iterator();
+                while (it.hasNext()) {
+                    LoadRequest pending = it.next();
+                    if (request.replaces(pending)) {
+                        it.remove();
+                        skipped.add(pending);
                     }
+                }
+                if (mMaxPending > 0 && mPending.size() >= mMaxPending) {
+                    skipped.add(mPending.pollFirst());
+                }
+                mPending.addLast(request);
+                notifyAll();
+            }
+            for (LoadRequest pending : skipped) {
+                pending.skipRequest(mEventLoader);
+            }
+        }
 
-                    if (request instanceof ShutdownRequest) {
-                        return;
+        /**
+         * Blocks until this lane and every lane above it have nothing to do,
+         * or are stopped.
+         */
+        void awaitIdle() throws InterruptedException {
+            synchronized (this) {
+                while (mRunning && (mActive > 0 || !mPending.isEmpty())) {
+                    wait();
+                }
+            }
+            if (mHigherLane != null) {
+                mHigherLane.awaitIdle();
+            }
+        }
+
+        /**
+         * @return true if this lane and every lane above it have nothing to
+         *         do, or are stopped
+         */
+        boolean isIdle() {
+            synchronized (this) {
+                if (mRunning && (mActive > 0 || !mPending.isEmpty())) {
+                    return false;
+                }
+            }
+            return mHigherLane == null || mHigherLane.isIdle();
+        }
+
+        private synchronized boolean isStoppedSince(int generation) {
+            return mGeneration != generation;
+        }
+
+        // An interrupt is not an error: the worker goes back to waiting, or
+        // skips the request it was holding, and exits once the lane stops.
+        private void runWorker(int generation) {
+            while (true) {
+                LoadRequest request;
+                try {
+                    synchronized (this) {
+                        while (mGeneration == generation && mPending.isEmpty()) {
+                            wait();
+                        }
+                        if (mGeneration != generation) {
+                            return;
+                        }
+                        request = mPending.pollFirst();
+                        mActive++;
+                    }
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+
+                try {
+                    if (mHigherLane != null) {
+                        mHigherLane.awaitIdle();
                     }
-                    request.processRequest(mEventLoader);
+                    process(request);
                 } catch (InterruptedException ex) {
-                    Log.e("Cal", "background LoaderThread interrupted!");
+                    request.skipRequest(mEventLoader);
+                } finally {
+                    finishRequest();
                 }
             }
         }
+
+        // Serves the next request without waiting, see LoaderWorker.runOnce()
+        private boolean runNext(int generation) {
+            if (mHigherLane != null && !mHigherLane.isIdle()) {
+                return false;
+            }
+            LoadRequest request;
+            synchronized (this) {
+                if (mGeneration != generation || mPending.isEmpty()) {
+                    return false;
+                }
+                request = mPending.pollFirst();
+                mActive++;
+            }
+            try {
+                process(request);
+            } finally {
+                finishRequest();
+            }
+            return true;
+        }
+
+        // Serves a request, giving it up if it fails so the worker lives on
+        private void process(LoadRequest request) {
+            try {
+                request.processRequest(mEventLoader);
+            } catch (RuntimeException ex) {
+                mEventLoader.mScheduler.reportError("background " + mName
+                        + " request failed", ex);
+                request.skipRequest(mEventLoader);
+            }
+        }
+
+        private synchronized void finishRequest() {
+            mActive--;
+            notifyAll();
+        }
     }
 
+    /**
+     * Creates a loader for Android. Must be called on the UI thread, which
+     * the callbacks are posted to.
+     */
     public DayViewEventLoader(EventResource eventResource) {
-        mLoaderQueue = new LinkedBlockingQueue<LoadRequest>();
+        this(eventResource, new HandlerLoaderScheduler(), new AndroidLoaderThreadFactory());
+    }
+
+    /**
+     * @param eventResource where the events come from
+     * @param scheduler runs the callbacks and keeps the time
+     * @param threadFactory creates the worker threads
+     */
+    public DayViewEventLoader(EventResource eventResource, LoaderScheduler scheduler,
+            LoaderThreadFactory threadFactory) {
         mEventResource = eventResource;
+        mScheduler = scheduler;
+        mThreadFactory = threadFactory;
+        mVisibleLane = new LoaderLane("visible",
+                Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE,
+                1, 0, null, this);
+        mPrefetchLane = new LoaderLane("prefetch", Process.THREAD_PRIORITY_BACKGROUND,
+                2, 4, mVisibleLane, this);
+        mDayMarkerLane = new LoaderLane("daymarkers", Process.THREAD_PRIORITY_LOWEST,
+                1, 0, mPrefetchLane, this);
+    }
+
+    public EventResource getEventResource() {
+        return mEventResource;
     }
 
     /**
-     * Call this from the activity's onResume()
+     * Call this from the activity's onResume(). Within the retain period of
+     * the last {@link #stopBackgroundThread()} the workers and everything
+     * loaded so far are still there.
      */
     public void startBackgroundThread() {
-        mLoaderThread = new LoaderThread(mLoaderQueue, this);
-        mLoaderThread.start();
+        mScheduler.removeCallbacks(mReleaseRunnable);
+        mVisibleLane.start();
+        mPrefetchLane.start();
+        mDayMarkerLane.start();
+
+        // What was loaded before the pause counts as freshly loaded again
+        synchronized (mPrefetched) {
+            mPaused = false;
+            long now = mScheduler.uptimeMillis();
+            for (Map.Entry<Long, RecentLoad> entry : mRecentLoads.entrySet()) {
+                entry.setValue(new RecentLoad(entry.getValue().events, now));
+            }
+        }
     }
 
     /**
-     * Call this from the activity's onPause()
+     * Call this from the activity's onPause(). The workers go idle and are
+     * only stopped, and the cached events dropped, if
+     * {@link #startBackgroundThread()} is not called again within the retain
+     * period. Keep the loader across a configuration change (for example
+     * with onRetainNonConfigurationInstance()) so a rotated activity repaints
+     * from memory.
+     * <p>
+     * The load of the visible range in progress is cancelled and its callers
+     * get their cancel callbacks, so the loader does not hold on to the views
+     * of an activity that may not come back. Reload the events when resuming.
      */
     public void stopBackgroundThread() {
-        mLoaderThread.shutdown();
+        synchronized (mPrefetched) {
+            mPaused = true;
+        }
+        LoadEventLayoutRequest request;
+        synchronized (this) {
+            request = mLayoutRequest;
+            mLayoutRequest = null;
+        }
+        CancelablePredicate load = mVisibleLoad.getAndSet(null);
+        if (load != null) {
+            load.cancel();
+        }
+        mVisibleLane.skipPending();
+        if (request != null) {
+            request.skipRequest(this);
+        }
+        mScheduler.removeCallbacks(mReleaseRunnable);
+        if (mRetainMillis > 0) {
+            mScheduler.postDelayed(mReleaseRunnable, mRetainMillis);
+        } else {
+            mReleaseRunnable.run();
+        }
     }
 
     /**
-     * Loads "numDays" days worth of events, starting at start, into events.
-     * Posts uiCallback to the {@link Handler} for this view, which will run in the UI thread.
-     * Reuses an existing background thread, if events were already being loaded in the background.
-     * NOTE: events and uiCallback are not used if an existing background thread gets reused --
-     * the ones that were passed in on the call that results in the background thread getting
-     * created are used, and the most recent call's worth of data is loaded into events and posted
-     * via the uiCallback.
+     * Sets how long the workers and the cached events are kept after
+     * {@link #stopBackgroundThread()}. 0 releases them at once.
+     */
+    public void setRetainMillis(long retainMillis) {
+        mRetainMillis = retainMillis;
+    }
+
+    private final Runnable mReleaseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mVisibleLane.shutdown();
+            mPrefetchLane.shutdown();
+            mDayMarkerLane.shutdown();
+            clearCachedEvents();
+        }
+    };
+
+    /**
+     * Loads "numDays" days worth of events, starting at startDay, in the
+     * background. When they are loaded, they are published as the result of
+     * {@link #getLoadedEvents()} and successCallback is posted to the UI
+     * thread. Only the most recent request is published; earlier ones get
+     * cancelCallback.
+     *
+     * @return the version the result of this request will carry
      */
-    public void loadEventsInBackground(final int numDays, final ArrayList<Event> events,
-            int startDay, final Runnable successCallback, final Runnable cancelCallback) {
+    public int loadEventsInBackground(int numDays, int startDay,
+            final Runnable successCallback, final Runnable cancelCallback) {
 
-        // Increment the sequence number for requests.  We don't care if the
-        // sequence numbers wrap around because we test for equality with the
-        // latest one.
-        int id = mSequenceNumber.incrementAndGet();
+        int version = mLoadVersion.incrementAndGet();
 
         // Send the load request to the background thread
-        LoadEventsRequest request = new LoadEventsRequest(id, startDay, numDays,
-                events, successCallback, cancelCallback, mEventResource);
+        LoadEventsRequest request = new LoadEventsRequest(startVisibleLoad(), version, startDay,
+                numDays, successCallback, cancelCallback, mEventResource);
 
-        try {
-            mLoaderQueue.put(request);
-        } catch (InterruptedException ex) {
-            // The put() method fails with InterruptedException if the
-            // queue is full. This should never happen because the queue
-            // has no limit.
-            Log.e("Cal", "loadEventsInBackground() interrupted!");
+        mVisibleLane.enqueue(request);
+        return version;
+    }
+
+    /**
+     * @return the result of the most recent completed
+     *         {@link #loadEventsInBackground} request, or null if there is none.
+     *         Compare its version with the one the request returned to tell
+     *         whether it is still current.
+     */
+    public EventLoadResult getLoadedEvents() {
+        return mLoadedEvents.get();
+    }
+
+    // Makes result the one returned by getLoadedEvents() unless a newer one
+    // has already been published. Returns false if it was too old.
+    private boolean publish(EventLoadResult result) {
+        while (true) {
+            EventLoadResult current = mLoadedEvents.get();
+            if (current != null && current.getVersion() - result.getVersion() > 0) {
+                return false;
+            }
+            if (mLoadedEvents.compareAndSet(current, result)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Loads "numDays" days worth of events, starting at startDay, and lays them
+     * out on the background thread. The resulting snapshot is passed to
+     * successCallback on the UI thread. Like
+     * {@link #loadEventsInBackground(int, int, Runnable, Runnable)},
+     * only the most recent request is delivered; earlier ones get cancelCallback.
+     * A request for the same days as the load in progress joins that load
+     * instead of cancelling it, and a range completed within the last
+     * {@link #RECENT_LOAD_MILLIS} is laid out again without a query.
+     *
+     * @param generation identifies this set of events to {@link EventLayoutCache}
+     * @param minimumDurationMillis minimum duration of an event rectangle at the
+     *            current cell height
+     * @param maxVisibleColumns the column limit for overlapping events, or 0
+     */
+    public void loadEventLayoutInBackground(int numDays, int startDay, int generation,
+            long minimumDurationMillis, int maxVisibleColumns,
+            final EventLayoutCallback successCallback, final Runnable cancelCallback) {
+        loadEventLayoutInBackground(numDays, startDay, 0, DayView.MINUTES_PER_DAY, generation,
+                minimumDurationMillis, maxVisibleColumns, successCallback, cancelCallback);
+    }
+
+    /**
+     * Same as
+     * {@link #loadEventLayoutInBackground(int, int, int, long, int, EventLayoutCallback, Runnable)},
+     * but asks the resource for the events that show between focusStartMinute
+     * and focusEndMinute of a day first, so the partial snapshots of a slow
+     * load fill in the hours on screen before the others.
+     */
+    public void loadEventLayoutInBackground(int numDays, int startDay, int focusStartMinute,
+            int focusEndMinute, int generation, long minimumDurationMillis,
+            int maxVisibleColumns, final EventLayoutCallback successCallback,
+            final Runnable cancelCallback) {
+
+        LayoutSubscriber subscriber = new LayoutSubscriber(generation, minimumDurationMillis,
+                maxVisibleColumns, successCallback, cancelCallback);
+        LoadEventLayoutRequest request;
+        final int epoch = getCacheEpoch();
+        synchronized (this) {
+            // Both views of a ViewSwitcher may ask for the same days. Share
+            // the load already on its way instead of starting over, unless
+            // the events or the filters changed since it started.
+            request = mLayoutRequest;
+            if (request != null && request.startDay == startDay && request.numDays == numDays
+                    && request.epoch == epoch && request.addSubscriber(subscriber)) {
+                return;
+            }
+            request = new LoadEventLayoutRequest(startVisibleLoad(), startDay, numDays,
+                    focusStartMinute, focusEndMinute, epoch, subscriber, mEventResource);
+            mLayoutRequest = request;
+        }
+
+        mVisibleLane.enqueue(request);
+    }
+
+    /**
+     * Returns the snapshot prefetched for the given window and removes it from
+     * the cache, or null if there is none. Windows are prefetched on either
+     * side of every window loaded by
+     * {@link #loadEventLayoutInBackground}. A hit also cancels any load still
+     * in progress, just as a new load would.
+     */
+    public EventLayoutSnapshot takePrefetchedLayout(int startDay, int numDays) {
+        EventLayoutSnapshot snapshot;
+        synchronized (mPrefetched) {
+            snapshot = mPrefetched.remove(windowKey(startDay, numDays));
+        }
+        if (snapshot != null) {
+            startVisibleLoad();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Drops the prefetched windows and the recently loaded ranges, and stops
+     * later requests from joining the load in progress. Call this when the
+     * events change, or when a setting that filters them, such as
+     * {@link com.google.code.yadview.impl.DefaultEventResource#KEY_HIDE_DECLINED},
+     * does.
+     */
+    public void clearCachedEvents() {
+        synchronized (mPrefetched) {
+            mPrefetched.clear();
+            mRecentLoads.clear();
+            mPrefetchEpoch++;
+        }
+    }
+
+    /**
+     * Drops the prefetched windows and the recently loaded ranges that
+     * include any of the given days, leaving the others.
+     */
+    public void invalidateEvents(int startDay, int numDays) {
+        final int endDay = startDay + numDays - 1;
+        synchronized (mPrefetched) {
+            Iterator<Long> it = mPrefetched.keySet().iterator();
+            while (it.hasNext()) {
+                if (windowOverlaps(it.next(), startDay, endDay)) {
+                    it.remove();
+                }
+            }
+            it = mRecentLoads.keySet().iterator();
+            while (it.hasNext()) {
+                if (windowOverlaps(it.next(), startDay, endDay)) {
+                    it.remove();
+                }
+            }
+            mPrefetchEpoch++;
+        }
+    }
+
+    private List<Event> getRecentLoad(int startDay, int numDays) {
+        synchronized (mPrefetched) {
+            RecentLoad load = mRecentLoads.get(windowKey(startDay, numDays));
+            if (load == null) {
+                return null;
+            }
+            // While paused the loads are kept until the retain period ends
+            if (!mPaused
+                    && mScheduler.uptimeMillis() - load.loadedAtMillis > RECENT_LOAD_MILLIS) {
+                mRecentLoads.remove(windowKey(startDay, numDays));
+                return null;
+            }
+            return load.events;
+        }
+    }
+
+    private void putRecentLoad(int startDay, int numDays, List<Event> events, int epoch) {
+        synchronized (mPrefetched) {
+            Long key = windowKey(startDay, numDays);
+            if (epoch == mPrefetchEpoch && !mRecentLoads.containsKey(key)) {
+                mRecentLoads.put(key, new RecentLoad(Collections.unmodifiableList(events),
+                        mScheduler.uptimeMillis()));
+            }
+        }
+    }
+
+    /**
+     * Cancels the load of the visible range in progress, if any, and returns
+     * the predicate for a new one.
+     */
+    private CancelablePredicate startVisibleLoad() {
+        CancelablePredicate load = new CancelablePredicate();
+        CancelablePredicate previous = mVisibleLoad.getAndSet(load);
+        if (previous != null) {
+            previous.cancel();
+        }
+        return load;
+    }
+
+    private void prefetch(int startDay, int numDays, int generation,
+            long minimumDurationMillis, int maxVisibleColumns) {
+        int epoch;
+        synchronized (mPrefetched) {
+            if (mPrefetched.containsKey(windowKey(startDay, numDays))) {
+                return;
+            }
+            epoch = mPrefetchEpoch;
+        }
+        mPrefetchLane.enqueue(new PrefetchRequest(startDay, numDays, generation,
+                minimumDurationMillis, maxVisibleColumns, epoch, mEventResource));
+    }
+
+    private boolean isPrefetched(int startDay, int numDays, int epoch) {
+        synchronized (mPrefetched) {
+            return epoch != mPrefetchEpoch
+                    || mPrefetched.containsKey(windowKey(startDay, numDays));
+        }
+    }
+
+    private int getCacheEpoch() {
+        synchronized (mPrefetched) {
+            return mPrefetchEpoch;
+        }
+    }
+
+    private boolean isPrefetchEpoch(int epoch) {
+        synchronized (mPrefetched) {
+            return epoch == mPrefetchEpoch;
+        }
+    }
+
+    private void putPrefetched(EventLayoutSnapshot snapshot, int epoch) {
+        synchronized (mPrefetched) {
+            if (epoch == mPrefetchEpoch) {
+                mPrefetched.put(windowKey(snapshot.getFirstJulianDay(), snapshot.getNumDays()),
+                        snapshot);
+            }
         }
     }
 
+    // The events sorted the way EventLayoutSnapshot expects them. A focused
+    // load hands them over in two sorted parts.
+    private static List<Event> inDisplayOrder(List<Event> events) {
+        ArrayList<Event> sorted = new ArrayList<Event>(events);
+        Collections.sort(sorted, EventDelta.DISPLAY_ORDER);
+        return sorted;
+    }
+
+    private static Long windowKey(int startDay, int numDays) {
+        return ((long) startDay << 32) | (numDays & 0xffffffffL);
+    }
+
+    private static boolean windowOverlaps(long windowKey, int startDay, int endDay) {
+        final int windowStart = (int) (windowKey >> 32);
+        final int windowEnd = windowStart + (int) windowKey - 1;
+        return windowStart <= endDay && windowEnd >= startDay;
+    }
+
     /**
      * Sends a request for the days with events to be marked. Loads "numDays"
      * worth of days, starting at start, and fills in eventDays to express which
@@ -262,13 +1104,6 @@ public class DayViewEventLoader {
         // Send load request to the background thread
         LoadEventDaysRequest request = new LoadEventDaysRequest(startDay, numDays,
                 eventDays, uiCallback, mEventResource);
-        try {
-            mLoaderQueue.put(request);
-        } catch (InterruptedException ex) {
-            // The put() method fails with InterruptedException if the
-            // queue is full. This should never happen because the queue
-            // has no limit.
-            Log.e("Cal", "loadEventDaysInBackground() interrupted!");
-        }
+        mDayMarkerLane.enqueue(request);
     }
 }
@@ -27,6 +27,7 @@ public class Event implements Cloneable {
 
 
     private long id;
+    private long calendarId;    // 0 if not known
     private int color;
     private CharSequence title;
     private CharSequence location;
@@ -76,6 +77,7 @@ public class Event implements Cloneable {
         Event e = new Event();
 
         e.setTitle(title);
+        e.setCalendarId(calendarId);
         e.setColor(color);
         e.setLocation(location);
         e.setAllDay(allDay);
@@ -96,6 +98,7 @@ public class Event implements Cloneable {
 
     public final void copyTo(Event dest) {
         dest.setId(id);
+        dest.setCalendarId(calendarId);
         dest.setTitle(title);
         dest.setColor(color);
         dest.setLocation(location);
@@ -195,6 +198,18 @@ public class Event implements Cloneable {
         this.id = id;
     }
 
+    /**
+     * @return the id of the calendar the event belongs to, or 0 if the
+     *         resource did not say
+     */
+    public long getCalendarId() {
+        return calendarId;
+    }
+
+    public void setCalendarId(long calendarId) {
+        this.calendarId = calendarId;
+    }
+
     public int getColor() {
         return color;
     }
@@ -0,0 +1,239 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Groups the timed (not all-day) events by the Julian days they are drawn on,
+ * so per-day work only visits that day's events. The layouts of each day are
+ * stored next to each other in one array, in their original order, and an
+ * offset table gives the range for each day. An event that crosses midnight
+ * is listed under every day it touches.
+ * <p>
+ * Within a day the events are sorted by the minute they start on that day,
+ * and each entry also records the latest end minute of it and the entries
+ * before it. This makes the entries overlapping a span of minutes a
+ * contiguous range that can be found by binary search.
+ */
+public class EventDayIndex {
+
+    private final int mFirstJulianDay;
+    private final int mNumDays;
+    // mDayOffsets[d] .. mDayOffsets[d + 1] is the range of day d in mLayouts
+    private final int[] mDayOffsets;
+    private final EventLayout[] mLayouts;
+    // Start minute on its day of each entry, 0 if it started on an earlier day
+    private final int[] mStartMinutes;
+    // End minute on its day of each entry, MINUTES_PER_DAY if it ends on a
+    // later day
+    private final int[] mEndMinutes;
+    // Largest end minute of the entries from the start of its day up to each
+    // entry, MINUTES_PER_DAY if it ends on a later day
+    private final int[] mMaxEndMinutes;
+
+    /**
+     * @param layouts the events to index, in drawing order
+     * @param firstJulianDay the first day to index
+     * @param numDays the number of days to index
+     */
+    public EventDayIndex(List<EventLayout> layouts, int firstJulianDay, int numDays) {
+        mFirstJulianDay = firstJulianDay;
+        mNumDays = numDays;
+        mDayOffsets = new int[numDays + 1];
+
+        final int lastJulianDay = firstJulianDay + numDays - 1;
+        final int len = layouts.size();
+
+        // Count the events on each day, shifted by one so that the prefix
+        // sum leaves the start of each day in mDayOffsets.
+        for (int i = 0; i < len; i++) {
+            Event event = layouts.get(i).getEvent();
+            if (event.drawAsAllday()) {
+                continue;
+            }
+            final int firstDay = Math.max(event.getStartDay(), firstJulianDay);
+            final int lastDay = Math.min(event.getEndDay(), lastJulianDay);
+            for (int day = firstDay; day <= lastDay; day++) {
+                mDayOffsets[day - firstJulianDay + 1]++;
+            }
+        }
+        for (int d = 0; d < numDays; d++) {
+            mDayOffsets[d + 1] += mDayOffsets[d];
+        }
+
+        mLayouts = new EventLayout[mDayOffsets[numDays]];
+        final int[] next = new int[numDays];
+        System.arraycopy(mDayOffsets, 0, next, 0, numDays);
+        for (int i = 0; i < len; i++) {
+            EventLayout layout = layouts.get(i);
+            Event event = layout.getEvent();
+            if (event.drawAsAllday()) {
+                continue;
+            }
+            final int firstDay = Math.max(event.getStartDay(), firstJulianDay);
+            final int lastDay = Math.min(event.getEndDay(), lastJulianDay);
+            for (int day = firstDay; day <= lastDay; day++) {
+                mLayouts[next[day - firstJulianDay]++] = layout;
+            }
+        }
+
+        mStartMinutes = new int[mLayouts.length];
+        mEndMinutes = new int[mLayouts.length];
+        mMaxEndMinutes = new int[mLayouts.length];
+        for (int d = 0; d < numDays; d++) {
+            final int date = firstJulianDay + d;
+            final int from = mDayOffsets[d];
+            final int to = mDayOffsets[d + 1];
+
+            // Events arrive sorted by start time so this is usually a single
+            // pass. The sort is stable, which keeps the drawing order of
+            // events that start together.
+            Arrays.sort(mLayouts, from, to, new StartMinuteComparator(date));
+
+            int maxEnd = 0;
+            for (int i = from; i < to; i++) {
+                Event event = mLayouts[i].getEvent();
+                mStartMinutes[i] = startMinute(event, date);
+                mEndMinutes[i] = endMinute(event, date);
+                maxEnd = Math.max(maxEnd, mEndMinutes[i]);
+                mMaxEndMinutes[i] = maxEnd;
+            }
+        }
+    }
+
+    // If the event started on a previous day, then it starts at the
+    // beginning of this day.
+    private static int startMinute(Event event, int date) {
+        return event.getStartDay() < date ? 0 : event.getStartTime();
+    }
+
+    // If the event ends on a future day, then it extends to the end of this day.
+    private static int endMinute(Event event, int date) {
+        return event.getEndDay() > date ? DayView.MINUTES_PER_DAY : event.getEndTime();
+    }
+
+    private static class StartMinuteComparator implements Comparator<EventLayout> {
+        private final int mDate;
+
+        StartMinuteComparator(int date) {
+            mDate = date;
+        }
+
+        @Override
+        public int compare(EventLayout lhs, EventLayout rhs) {
+            return startMinute(lhs.getEvent(), mDate) - startMinute(rhs.getEvent(), mDate);
+        }
+    }
+
+    /**
+     * @return the index of the first event on the given Julian day
+     */
+    public int getStart(int julianDay) {
+        final int d = julianDay - mFirstJulianDay;
+        if (d < 0 || d >= mNumDays) {
+            return 0;
+        }
+        return mDayOffsets[d];
+    }
+
+    /**
+     * @return one past the index of the last event on the given Julian day.
+     *         This equals {@link #getStart(int)} when the day has no events.
+     */
+    public int getEnd(int julianDay) {
+        final int d = julianDay - mFirstJulianDay;
+        if (d < 0 || d >= mNumDays) {
+            return 0;
+        }
+        return mDayOffsets[d + 1];
+    }
+
+    /**
+     * @return the index of the first event on the given day that may still be
+     *         running at the given minute. Events before it all end earlier.
+     */
+    public int getFirstEndingAtOrAfter(int julianDay, int minute) {
+        int lo = getStart(julianDay);
+        int hi = getEnd(julianDay);
+        final int[] maxEnds = mMaxEndMinutes;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (maxEnds[mid] < minute) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return one past the index of the last event on the given day that
+     *         starts at or before the given minute
+     */
+    public int getEndStartingAtOrBefore(int julianDay, int minute) {
+        int lo = getStart(julianDay);
+        int hi = getEnd(julianDay);
+        final int[] starts = mStartMinutes;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= minute) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the number of entries, counting an event once per day it is on
+     */
+    public int size() {
+        return mLayouts.length;
+    }
+
+    public EventLayout get(int index) {
+        return mLayouts[index];
+    }
+
+    /**
+     * @return the minute the entry starts on its day
+     */
+    public int getStartMinute(int index) {
+        return mStartMinutes[index];
+    }
+
+    /**
+     * @return the minute the entry ends on its day
+     */
+    public int getEndMinute(int index) {
+        return mEndMinutes[index];
+    }
+
+    public int getFirstJulianDay() {
+        return mFirstJulianDay;
+    }
+
+    public int getNumDays() {
+        return mNumDays;
+    }
+}
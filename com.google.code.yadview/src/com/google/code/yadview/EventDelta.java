@@ -0,0 +1,286 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+package com.google.code.yadview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The differences between two loads of the same range of days. An event
+ * instance is identified by its event id and its start time, so an instance
+ * that moves shows up as removed and added, while one that keeps its start
+ * but differs in any other way shows up as changed. Never changes once built.
+ *
+ * @see EventLayoutSnapshot#withDelta(EventDelta, int, long, int)
+ */
+public final class EventDelta {
+
+    /**
+     * The order {@link com.google.code.yadview.impl.DefaultEventResource}
+     * returns events in: the ones drawn in the all-day area first, by start
+     * day and then longest first, then the others by start time and then
+     * longest first. Ties are broken by title.
+     */
+    public static final Comparator<Event> DISPLAY_ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            final boolean lhsAllday = lhs.drawAsAllday();
+            if (lhsAllday != rhs.drawAsAllday()) {
+                return lhsAllday ? -1 : 1;
+            }
+            int cmp;
+            if (lhsAllday) {
+                cmp = compareLongs(lhs.getStartDay(), rhs.getStartDay());
+                if (cmp == 0) {
+                    cmp = compareLongs(rhs.getEndDay(), lhs.getEndDay());
+                }
+            } else {
+                cmp = compareLongs(lhs.getStartMillis(), rhs.getStartMillis());
+                if (cmp == 0) {
+                    cmp = compareLongs(rhs.getEndMillis(), lhs.getEndMillis());
+                }
+            }
+            if (cmp == 0) {
+                cmp = textOf(lhs.getTitle()).compareTo(textOf(rhs.getTitle()));
+            }
+            return cmp;
+        }
+    };
+
+    /**
+     * Orders instances by identity: by event id and then by start time.
+     */
+    public static final Comparator<Event> INSTANCE_ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            int cmp = compareLongs(lhs.getId(), rhs.getId());
+            if (cmp == 0) {
+                cmp = compareLongs(lhs.getStartMillis(), rhs.getStartMillis());
+            }
+            return cmp;
+        }
+    };
+
+    private final int mFirstJulianDay;
+    private final int mNumDays;
+    private final List<Event> mAdded;
+    private final List<Event> mRemoved;
+    private final List<Event> mChanged;
+    private final int mFirstChangedDay;
+    private final int mLastChangedDay;
+
+    private EventDelta(int firstJulianDay, int numDays, List<Event> added, List<Event> removed,
+            List<Event> changed, int firstChangedDay, int lastChangedDay) {
+        mFirstJulianDay = firstJulianDay;
+        mNumDays = numDays;
+        mAdded = Collections.unmodifiableList(added);
+        mRemoved = Collections.unmodifiableList(removed);
+        mChanged = Collections.unmodifiableList(changed);
+        mFirstChangedDay = firstChangedDay;
+        mLastChangedDay = lastChangedDay;
+    }
+
+    /**
+     * Works out what changed between two loads of a range of days.
+     *
+     * @param before the events loaded earlier
+     * @param after the events loaded now
+     */
+    public static EventDelta compute(List<Event> before, List<Event> after, int firstJulianDay,
+            int numDays) {
+        final ArrayList<Event> oldEvents = new ArrayList<Event>(before);
+        final ArrayList<Event> newEvents = new ArrayList<Event>(after);
+        Collections.sort(oldEvents, INSTANCE_ORDER);
+        Collections.sort(newEvents, INSTANCE_ORDER);
+
+        final ArrayList<Event> added = new ArrayList<Event>();
+        final ArrayList<Event> removed = new ArrayList<Event>();
+        final ArrayList<Event> changed = new ArrayList<Event>();
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+
+        // Walk both lists in step
+        int i = 0;
+        int j = 0;
+        while (i < oldEvents.size() || j < newEvents.size()) {
+            final int cmp;
+            if (i == oldEvents.size()) {
+                cmp = 1;
+            } else if (j == newEvents.size()) {
+                cmp = -1;
+            } else {
+                cmp = INSTANCE_ORDER.compare(oldEvents.get(i), newEvents.get(j));
+            }
+
+            Event touched;
+            if (cmp < 0) {
+                touched = oldEvents.get(i++);
+                removed.add(touched);
+            } else if (cmp > 0) {
+                touched = newEvents.get(j++);
+                added.add(touched);
+            } else {
+                Event oldEvent = oldEvents.get(i++);
+                touched = newEvents.get(j++);
+                if (sameContents(oldEvent, touched)) {
+                    continue;
+                }
+                changed.add(touched);
+                firstDay = Math.min(firstDay, oldEvent.getStartDay());
+                lastDay = Math.max(lastDay, oldEvent.getEndDay());
+            }
+            firstDay = Math.min(firstDay, touched.getStartDay());
+            lastDay = Math.max(lastDay, touched.getEndDay());
+        }
+
+        // Only the days of the range count as touched
+        final int lastJulianDay = firstJulianDay + numDays - 1;
+        return new EventDelta(firstJulianDay, numDays, added, removed, changed,
+                Math.max(firstDay, firstJulianDay), Math.min(lastDay, lastJulianDay));
+    }
+
+    /**
+     * Narrows this delta to some of its days, such as the ones a view shows.
+     * An instance that changed and no longer covers any of the days counts
+     * as removed from them; one that only now covers them still counts as
+     * changed.
+     *
+     * @return a delta for the given days, which must lie within this
+     *         delta's range
+     */
+    public EventDelta restrictTo(int firstJulianDay, int numDays) {
+        if (firstJulianDay == mFirstJulianDay && numDays == mNumDays) {
+            return this;
+        }
+        final int lastJulianDay = firstJulianDay + numDays - 1;
+        final ArrayList<Event> added = new ArrayList<Event>();
+        final ArrayList<Event> removed = new ArrayList<Event>();
+        final ArrayList<Event> changed = new ArrayList<Event>();
+        for (Event event : mAdded) {
+            if (covers(event, firstJulianDay, lastJulianDay)) {
+                added.add(event);
+            }
+        }
+        for (Event event : mRemoved) {
+            if (covers(event, firstJulianDay, lastJulianDay)) {
+                removed.add(event);
+            }
+        }
+        // Only the identity of a removed instance counts, and a changed one
+        // keeps its start
+        for (Event event : mChanged) {
+            if (covers(event, firstJulianDay, lastJulianDay)) {
+                changed.add(event);
+            } else {
+                removed.add(event);
+            }
+        }
+        return new EventDelta(firstJulianDay, numDays, added, removed, changed,
+                Math.max(mFirstChangedDay, firstJulianDay),
+                Math.min(mLastChangedDay, lastJulianDay));
+    }
+
+    /**
+     * @return the first day of the range the delta was computed for
+     */
+    public int getFirstJulianDay() {
+        return mFirstJulianDay;
+    }
+
+    public int getNumDays() {
+        return mNumDays;
+    }
+
+    /**
+     * @return the instances that are new, in no particular order
+     */
+    public List<Event> getAdded() {
+        return mAdded;
+    }
+
+    /**
+     * @return the earlier versions of the instances that are gone
+     */
+    public List<Event> getRemoved() {
+        return mRemoved;
+    }
+
+    /**
+     * @return the new versions of the instances that changed
+     */
+    public List<Event> getChanged() {
+        return mChanged;
+    }
+
+    public boolean isEmpty() {
+        return mAdded.isEmpty() && mRemoved.isEmpty() && mChanged.isEmpty();
+    }
+
+    /**
+     * @return the first day of the range with an event that was added,
+     *         removed or changed. Greater than {@link #getLastChangedDay()}
+     *         if the delta is empty.
+     */
+    public int getFirstChangedDay() {
+        return mFirstChangedDay;
+    }
+
+    public int getLastChangedDay() {
+        return mLastChangedDay;
+    }
+
+    /**
+     * @return true if any of the given days has an event that was added,
+     *         removed or changed
+     */
+    public boolean touches(int firstJulianDay, int numDays) {
+        return mFirstChangedDay <= firstJulianDay + numDays - 1
+                && mLastChangedDay >= firstJulianDay;
+    }
+
+    private static boolean covers(Event event, int firstJulianDay, int lastJulianDay) {
+        return event.getStartDay() <= lastJulianDay && event.getEndDay() >= firstJulianDay;
+    }
+
+    private static boolean sameContents(Event lhs, Event rhs) {
+        return lhs.getCalendarId() == rhs.getCalendarId()
+                && lhs.getColor() == rhs.getColor()
+                && lhs.isAllDay() == rhs.isAllDay()
+                && lhs.getStartDay() == rhs.getStartDay()
+                && lhs.getEndDay() == rhs.getEndDay()
+                && lhs.getStartTime() == rhs.getStartTime()
+                && lhs.getEndTime() == rhs.getEndTime()
+                && lhs.getEndMillis() == rhs.getEndMillis()
+                && lhs.isHasAlarm() == rhs.isHasAlarm()
+                && lhs.isRepeating() == rhs.isRepeating()
+                && lhs.getSelfAttendeeStatus() == rhs.getSelfAttendeeStatus()
+                && lhs.isGuestsCanModify() == rhs.isGuestsCanModify()
+                && textOf(lhs.getTitle()).equals(textOf(rhs.getTitle()))
+                && textOf(lhs.getLocation()).equals(textOf(rhs.getLocation()))
+                && textOf(lhs.getOrganizer()).equals(textOf(rhs.getOrganizer()));
+    }
+
+    private static String textOf(CharSequence text) {
+        return text == null ? "" : text.toString();
+    }
+
+    private static int compareLongs(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+}
@@ -0,0 +1,32 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+package com.google.code.yadview;
+
+/**
+ * Told about changes to the events of a range that was loaded before.
+ *
+ * @see com.google.code.yadview.impl.DefaultEventResource#startTrackingChanges(EventDeltaListener)
+ */
+public interface EventDeltaListener {
+
+    /**
+     * Called on a background thread with the differences between the last
+     * load of the delta's range and what the range holds now. Never called
+     * with an empty delta.
+     */
+    public void onEventDelta(EventDelta delta);
+}
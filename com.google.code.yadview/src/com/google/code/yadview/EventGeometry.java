@@ -18,7 +18,10 @@
 
 package com.google.code.yadview;
 
+import java.util.Arrays;
+
 import android.graphics.Rect;
+import android.graphics.RectF;
 
 
 public class EventGeometry {
@@ -30,25 +33,218 @@ public class EventGeometry {
     private float mHourGap;
     private float mMinEventHeight;
 
+    // The rectangle found by the last computeRect call
+    private float mComputedLeft;
+    private float mComputedTop;
+    private float mComputedRight;
+    private float mComputedBottom;
+
+    // Rectangles of the events in mRectIndex, by slot. They depend on the
+    // day's left edge, the cell size and the columns but not on the scroll
+    // position, so they are kept until one of those changes.
+    private EventDayIndex mRectIndex;
+    private float[] mRectLeft;
+    private float[] mRectTop;
+    private float[] mRectRight;
+    private float[] mRectBottom;
+    // The key of its day when each slot was computed
+    private int[] mRectKeys;
+    // The day parameters each day's rectangles were computed with, the
+    // generation they were computed in, and a key that changes whenever any
+    // of those do
+    private int[] mDayLefts;
+    private int[] mDayTops;
+    private int[] mDayWidths;
+    private int[] mDayGenerations;
+    private int[] mDayKeys;
+    private int mNextKey = 1;
+    // Bumped by invalidateEventRects(), so no day matches the current one
+    // until it is computed again
+    private int mRectGeneration = 1;
+
     void setCellMargin(int cellMargin) {
-        mCellMargin = cellMargin;
+        if (mCellMargin != cellMargin) {
+            mCellMargin = cellMargin;
+            invalidateEventRects();
+        }
     }
 
     public void setHourGap(float gap) {
-        mHourGap = gap;
+        if (mHourGap != gap) {
+            mHourGap = gap;
+            invalidateEventRects();
+        }
     }
 
     public void setMinEventHeight(float height) {
-        mMinEventHeight = height;
+        if (mMinEventHeight != height) {
+            mMinEventHeight = height;
+            invalidateEventRects();
+        }
     }
 
     public void setHourHeight(float height) {
-        mMinuteHeight = height / 60.0f;
+        float minuteHeight = height / 60.0f;
+        if (mMinuteHeight != minuteHeight) {
+            mMinuteHeight = minuteHeight;
+            invalidateEventRects();
+        }
+    }
+
+    /**
+     * Drops the cached rectangles. Call this when the columns of the events
+     * change.
+     */
+    public void invalidateEventRects() {
+        mRectGeneration++;
     }
 
     // Computes the rectangle coordinates of the given event on the screen.
     // Returns true if the rectangle is visible on the screen.
     public boolean computeEventRect(int date, int left, int top, int cellWidth, EventLayout event) {
+        if (event.isOverflow()) {
+            return false;
+        }
+        if (!computeRect(date, left, top, cellWidth, event, event.getColumn(), event.getMaxColumns())) {
+            return false;
+        }
+        event.setLeft(mComputedLeft);
+        event.setTop(mComputedTop);
+        event.setRight(mComputedRight);
+        event.setBottom(mComputedBottom);
+        return true;
+    }
+
+    // Same as computeEventRect for the event in the given slot of the index,
+    // but reuses the rectangle computed by an earlier call with the same day
+    // parameters. The rectangle is stored in the event as usual.
+    public boolean computeEventRect(int date, int left, int top, int cellWidth,
+            EventDayIndex index, int slot) {
+        final EventLayout event = index.get(slot);
+        final int day = date - index.getFirstJulianDay();
+        if (event.isOverflow() || day < 0 || day >= index.getNumDays()) {
+            return computeEventRect(date, left, top, cellWidth, event);
+        }
+        if (index != mRectIndex) {
+            bindRectCache(index);
+        }
+
+        if (mDayGenerations[day] != mRectGeneration || mDayLefts[day] != left
+                || mDayTops[day] != top || mDayWidths[day] != cellWidth) {
+            mDayGenerations[day] = mRectGeneration;
+            mDayLefts[day] = left;
+            mDayTops[day] = top;
+            mDayWidths[day] = cellWidth;
+            mDayKeys[day] = mNextKey++;
+        }
+
+        if (mRectKeys[slot] != mDayKeys[day]) {
+            // Fill in the whole day at once
+            final int from = index.getStart(date);
+            final int to = index.getEnd(date);
+            computeEventRects(date, left, top, cellWidth, index, from, to,
+                    mRectLeft, mRectTop, mRectRight, mRectBottom, from);
+            Arrays.fill(mRectKeys, from, to, mDayKeys[day]);
+        }
+
+        event.setLeft(mRectLeft[slot]);
+        event.setTop(mRectTop[slot]);
+        event.setRight(mRectRight[slot]);
+        event.setBottom(mRectBottom[slot]);
+        return true;
+    }
+
+    /**
+     * Computes the rectangles of the entries [from, to) of the given day in
+     * the index, without touching the {@link EventLayout}s. The rectangle of
+     * entry i is written at offset + i - from in each buffer and is the same
+     * as {@link #computeEventRect(int, int, int, int, EventLayout)} would give.
+     * Events hidden behind a "+N" marker get NaN coordinates, so they never
+     * intersect anything.
+     */
+    public void computeEventRects(int date, int left, int top, int cellWidth,
+            EventDayIndex index, int from, int to,
+            float[] lefts, float[] tops, float[] rights, float[] bottoms, int offset) {
+        final float minuteHeight = mMinuteHeight;
+        final float hourGap = mHourGap;
+        final float minEventHeight = mMinEventHeight;
+        final int cellMargin = mCellMargin;
+        final float dayTop = top;
+
+        int maxCols = -1;
+        float colWidth = 0;
+        for (int i = from, k = offset; i < to; i++, k++) {
+            final EventLayout event = index.get(i);
+            if (event.isOverflow()) {
+                lefts[k] = tops[k] = rights[k] = bottoms[k] = Float.NaN;
+                continue;
+            }
+
+            final int startTime = index.getStartMinute(i);
+            final int endTime = index.getEndMinute(i);
+            int endHour = endTime / 60;
+            // An end on an hour boundary counts as the previous hour, see
+            // computeRect
+            if (endHour * 60 == endTime)
+                endHour -= 1;
+
+            final float t = dayTop + (int) (startTime * minuteHeight) + (startTime / 60) * hourGap;
+            float b = dayTop + (int) (endTime * minuteHeight) + (endHour * hourGap - 1);
+            if (b < t + minEventHeight) {
+                b = t + minEventHeight;
+            }
+            tops[k] = t;
+            bottoms[k] = b;
+
+            // Events of the same overlap group share maxColumns
+            if (event.getMaxColumns() != maxCols) {
+                maxCols = event.getMaxColumns();
+                colWidth = (float) (cellWidth - (maxCols + 1) * cellMargin) / (float) maxCols;
+            }
+            final float l = left + event.getColumn() * (colWidth + cellMargin);
+            lefts[k] = l;
+            rights[k] = l + colWidth;
+        }
+    }
+
+    private void bindRectCache(EventDayIndex index) {
+        final int size = index.size();
+        final int numDays = index.getNumDays();
+        mRectIndex = index;
+        mRectLeft = new float[size];
+        mRectTop = new float[size];
+        mRectRight = new float[size];
+        mRectBottom = new float[size];
+        mRectKeys = new int[size];
+        mDayLefts = new int[numDays];
+        mDayTops = new int[numDays];
+        mDayWidths = new int[numDays];
+        // Generation 0 is never current, so every day starts out invalid
+        mDayGenerations = new int[numDays];
+        mDayKeys = new int[numDays];
+    }
+
+    // Computes the rectangle of a "+N" marker anchored at the given hidden
+    // event. The marker covers the anchor's time span on the given day in the
+    // right-most visible column and is written to rect; the anchor itself is
+    // not changed. Returns true if the anchor is drawn on the given day.
+    public boolean computeOverflowRect(int date, int left, int top, int cellWidth, EventLayout anchor,
+            RectF rect) {
+        int maxCols = anchor.getMaxColumns();
+        if (!computeRect(date, left, top, cellWidth, anchor, maxCols - 1, maxCols)) {
+            return false;
+        }
+        rect.left = mComputedLeft;
+        rect.top = mComputedTop;
+        rect.right = mComputedRight;
+        rect.bottom = mComputedBottom;
+        return true;
+    }
+
+    // Computes the rectangle of the event in the given column into the
+    // mComputed fields. Returns false if the event is not drawn on the day.
+    private boolean computeRect(int date, int left, int top, int cellWidth, EventLayout event,
+            int col, int maxCols) {
         if (event.getEvent().drawAsAllday()) {
             return false;
         }
@@ -76,8 +272,6 @@ public class EventGeometry {
             endTime = DayView.MINUTES_PER_DAY;
         }
 
-        int col = event.getColumn();
-        int maxCols = event.getMaxColumns();
         int startHour = startTime / 60;
         int endHour = endTime / 60;
 
@@ -87,25 +281,65 @@ public class EventGeometry {
         if (endHour * 60 == endTime)
             endHour -= 1;
 
-        event.setTop(top);
-        event.setTop(event.getTop() + (int) (startTime * cellMinuteHeight));
-        event.setTop(event.getTop() + startHour * mHourGap);
+        mComputedTop = top;
+        mComputedTop += (int) (startTime * cellMinuteHeight);
+        mComputedTop += startHour * mHourGap;
 
-        event.setBottom(top);
-        event.setBottom(event.getBottom() + (int) (endTime * cellMinuteHeight));
-        event.setBottom(event.getBottom() + (endHour * mHourGap - 1));
+        mComputedBottom = top;
+        mComputedBottom += (int) (endTime * cellMinuteHeight);
+        mComputedBottom += endHour * mHourGap - 1;
 
         // Make the rectangle be at least mMinEventHeight pixels high
-        if (event.getBottom() < event.getTop() + mMinEventHeight) {
-            event.setBottom(event.getTop() + mMinEventHeight);
+        if (mComputedBottom < mComputedTop + mMinEventHeight) {
+            mComputedBottom = mComputedTop + mMinEventHeight;
         }
 
         float colWidth = (float) (cellWidth - (maxCols + 1) * mCellMargin) / (float) maxCols;
-        event.setLeft(left + col * (colWidth + mCellMargin));
-        event.setRight(event.getLeft() + colWidth);
+        mComputedLeft = left + col * (colWidth + mCellMargin);
+        mComputedRight = mComputedLeft + colWidth;
         return true;
     }
 
+    // Computes the y coordinate at which an event starting at the given minute
+    // of the day would be drawn. This is the same as the top computed by
+    // computeEventRect.
+    public float computeMinuteTop(int top, int minute) {
+        return top + (int) (minute * mMinuteHeight) + (minute / 60) * mHourGap;
+    }
+
+    // Returns the earliest end minute that an event must have to reach down
+    // to visibleTop. Events ending before it are drawn entirely above it,
+    // even when stretched to the minimum event height.
+    public int computeFirstVisibleEndMinute(int top, float visibleTop) {
+        int lo = 0;
+        int hi = DayView.MINUTES_PER_DAY + 1;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (computeMinuteTop(top, mid) + mMinEventHeight < visibleTop) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Returns the latest start minute at which an event is still drawn at or
+    // above visibleBottom. Events starting after it are drawn entirely below.
+    public int computeLastVisibleStartMinute(int top, float visibleBottom) {
+        int lo = 0;
+        int hi = DayView.MINUTES_PER_DAY + 1;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (computeMinuteTop(top, mid) <= visibleBottom) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
     /**
      * Returns true if this event intersects the selection region.
      */
@@ -121,11 +355,13 @@ public class EventGeometry {
      * Computes the distance from the given point to the given event.
      */
     float pointToEvent(float x, float y, EventLayout ev) {
-        float left = ev.getLeft();
-        float right = ev.getRight();
-        float top = ev.getTop();
-        float bottom = ev.getBottom();
+        return pointToRect(x, y, ev.getLeft(), ev.getTop(), ev.getRight(), ev.getBottom());
+    }
 
+    /**
+     * Computes the distance from the given point to the given rectangle.
+     */
+    float pointToRect(float x, float y, float left, float top, float right, float bottom) {
         if (x >= left) {
             if (x <= right) {
                 if (y >= top) {
@@ -0,0 +1,216 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview;
+
+import java.util.Arrays;
+import java.util.List;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Remembers the event rectangles drawn in the last frame so that taps, long
+ * presses and hover can find the events under a point without computing the
+ * geometry of the day again.
+ * <p>
+ * The rectangles are kept in a uniform grid with one column per day and one
+ * band per hour. A query only looks at the buckets the query region overlaps.
+ * Rectangles are copied when added, because an event that crosses midnight is
+ * drawn on two days and its {@link EventLayout} only holds the last one. The
+ * layouts themselves are never written to, since the renderer and the
+ * keyboard navigation read them.
+ */
+public class EventHitIndex {
+
+    private static final int NO_LINK = -1;
+
+    private boolean mValid;
+    private int mFirstJulianDay;
+    private int mNumDays;
+    private int mNumBands;
+    private float mBandHeight;
+    // The span of content y coordinates that was drawn
+    private float mVisibleTop;
+    private float mVisibleBottom;
+
+    // One entry per drawn rectangle
+    private int mCount;
+    private EventLayout[] mLayouts = new EventLayout[16];
+    private float[] mLeft = new float[16];
+    private float[] mTop = new float[16];
+    private float[] mRight = new float[16];
+    private float[] mBottom = new float[16];
+
+    // Bucket lists: mBucketHeads[day * mNumBands + band] is the first link,
+    // mLinkEntry is the entry of each link and mLinkNext the next link.
+    private int[] mBucketHeads = new int[0];
+    private int mLinkCount;
+    private int[] mLinkEntry = new int[32];
+    private int[] mLinkNext = new int[32];
+
+    // Scratch space for queries
+    private int[] mSeen = new int[16];
+    private int mQueryStamp;
+    private int[] mMatches = new int[16];
+    private int mMatchCount;
+
+    /**
+     * Empties the index before a frame is drawn.
+     *
+     * @param firstJulianDay the first day drawn
+     * @param numDays the number of days drawn
+     * @param bandHeight the height of one hour including the gap
+     * @param visibleTop the top of the drawn area, in content coordinates
+     * @param visibleBottom the bottom of the drawn area, in content coordinates
+     */
+    public void reset(int firstJulianDay, int numDays, float bandHeight, float visibleTop,
+            float visibleBottom) {
+        mFirstJulianDay = firstJulianDay;
+        mNumDays = numDays;
+        mBandHeight = Math.max(bandHeight, 1f);
+        // One extra band for anything drawn past midnight
+        mNumBands = DayView.MINUTES_PER_DAY / DayView.MINUTES_PER_HOUR + 1;
+        mVisibleTop = visibleTop;
+        mVisibleBottom = visibleBottom;
+
+        final int buckets = numDays * mNumBands;
+        if (mBucketHeads.length < buckets) {
+            mBucketHeads = new int[buckets];
+        }
+        Arrays.fill(mBucketHeads, 0, buckets, NO_LINK);
+        Arrays.fill(mLayouts, 0, mCount, null);
+        mCount = 0;
+        mLinkCount = 0;
+        mMatchCount = 0;
+        mValid = true;
+    }
+
+    /**
+     * Marks the index as out of date, for example after the layout or cell
+     * size changed. Queries then fall back to computing the geometry.
+     */
+    public void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Adds the rectangle currently stored in event, as drawn on the given day.
+     */
+    public void add(int julianDay, EventLayout event) {
+        final int day = julianDay - mFirstJulianDay;
+        if (!mValid || day < 0 || day >= mNumDays) {
+            return;
+        }
+
+        final int entry = mCount++;
+        if (entry == mLayouts.length) {
+            final int capacity = entry * 2;
+            mLayouts = Arrays.copyOf(mLayouts, capacity);
+            mLeft = Arrays.copyOf(mLeft, capacity);
+            mTop = Arrays.copyOf(mTop, capacity);
+            mRight = Arrays.copyOf(mRight, capacity);
+            mBottom = Arrays.copyOf(mBottom, capacity);
+            mSeen = Arrays.copyOf(mSeen, capacity);
+            mMatches = Arrays.copyOf(mMatches, capacity);
+        }
+        mLayouts[entry] = event;
+        mLeft[entry] = event.getLeft();
+        mTop[entry] = event.getTop();
+        mRight[entry] = event.getRight();
+        mBottom[entry] = event.getBottom();
+        mSeen[entry] = 0;
+
+        final int lastBand = band(event.getBottom());
+        for (int b = band(event.getTop()); b <= lastBand; b++) {
+            if (mLinkCount == mLinkEntry.length) {
+                mLinkEntry = Arrays.copyOf(mLinkEntry, mLinkCount * 2);
+                mLinkNext = Arrays.copyOf(mLinkNext, mLinkCount * 2);
+            }
+            final int bucket = day * mNumBands + b;
+            mLinkEntry[mLinkCount] = entry;
+            mLinkNext[mLinkCount] = mBucketHeads[bucket];
+            mBucketHeads[bucket] = mLinkCount++;
+        }
+    }
+
+    /**
+     * @return true if the index holds every event drawn on the given day
+     *         between top and bottom, in content coordinates
+     */
+    public boolean covers(int firstJulianDay, int julianDay, float top, float bottom) {
+        final int day = julianDay - mFirstJulianDay;
+        return mValid && firstJulianDay == mFirstJulianDay && day >= 0 && day < mNumDays
+                && top >= mVisibleTop && bottom <= mVisibleBottom;
+    }
+
+    /**
+     * Adds the events on the given day whose rectangle intersects the region
+     * to out, in drawing order. The rectangle each one was drawn with on that
+     * day is available from {@link #getMatchRect}. Only call this when
+     * {@link #covers} is true for the region.
+     */
+    public void findIntersecting(int julianDay, Rect region, List<EventLayout> out) {
+        final int day = julianDay - mFirstJulianDay;
+        final int stamp = ++mQueryStamp;
+        int matches = 0;
+
+        final int lastBand = band(region.bottom);
+        for (int b = band(region.top); b <= lastBand; b++) {
+            for (int link = mBucketHeads[day * mNumBands + b]; link != NO_LINK;
+                    link = mLinkNext[link]) {
+                final int entry = mLinkEntry[link];
+                if (mSeen[entry] == stamp) {
+                    continue;
+                }
+                mSeen[entry] = stamp;
+                // Same test as EventGeometry.eventIntersectsSelection
+                if (mLeft[entry] < region.right && mRight[entry] >= region.left
+                        && mTop[entry] < region.bottom && mBottom[entry] >= region.top) {
+                    mMatches[matches++] = entry;
+                }
+            }
+        }
+
+        // Entries were added in drawing order
+        Arrays.sort(mMatches, 0, matches);
+        mMatchCount = matches;
+        for (int i = 0; i < matches; i++) {
+            out.add(mLayouts[mMatches[i]]);
+        }
+    }
+
+    /**
+     * Copies the rectangle the i-th event found by the last
+     * {@link #findIntersecting} call was drawn with into rect.
+     */
+    public void getMatchRect(int i, RectF rect) {
+        if (i < 0 || i >= mMatchCount) {
+            throw new IndexOutOfBoundsException("match " + i + " of " + mMatchCount);
+        }
+        final int entry = mMatches[i];
+        rect.set(mLeft[entry], mTop[entry], mRight[entry], mBottom[entry]);
+    }
+
+    private int band(float y) {
+        final int b = (int) (y / mBandHeight);
+        if (b < 0) {
+            return 0;
+        }
+        return b < mNumBands ? b : mNumBands - 1;
+    }
+}
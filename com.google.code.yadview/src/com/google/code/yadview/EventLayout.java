@@ -23,11 +23,11 @@ package com.google.code.yadview;
 
 
 import java.util.ArrayList;
-import java.util.Iterator;
 
 public class EventLayout {
-    
-    
+
+    private static final LayoutStrategy DEFAULT_STRATEGY = new ArrayLayoutStrategy();
+
     private final Event mEvent;
 
     private int mColumn;
@@ -44,6 +44,10 @@ public class EventLayout {
     private EventLayout nextLeft;
     private EventLayout nextUp;
     private EventLayout nextDown;
+
+    // Set when this event was folded into a "+N" marker instead of getting a
+    // column of its own.
+    private EventOverflow mOverflow;
     
     
     
@@ -68,106 +72,45 @@ public class EventLayout {
      */
     public static void computePositions(ArrayList<EventLayout> eventsList,
             long minimumDurationMillis) {
-        if (eventsList == null) {
-            return;
-        }
+        computePositions(eventsList, minimumDurationMillis, 0);
+    }
 
-        // Compute the column positions separately for the all-day events
-        doComputePositions(eventsList, minimumDurationMillis, false);
-        doComputePositions(eventsList,  minimumDurationMillis, true);
+    /**
+     * Same as {@link #computePositions(ArrayList, long)}, but limits the
+     * number of side-by-side columns used for normal events. An event that
+     * would be placed in column maxVisibleColumns or beyond is not given a
+     * rectangle of its own; it is added to the {@link EventOverflow} of its
+     * overlap group instead, so the renderer can draw it as "+N".
+     *
+     * @param maxVisibleColumns the largest number of columns an overlap group
+     * may use, or 0 for no limit. All-day events are never folded.
+     */
+    public static void computePositions(ArrayList<EventLayout> eventsList,
+            long minimumDurationMillis, int maxVisibleColumns) {
+        computePositions(eventsList, minimumDurationMillis, maxVisibleColumns, DEFAULT_STRATEGY);
     }
-    
-    //TODO: Allow different layout strategies
-    private static void doComputePositions(ArrayList<EventLayout> eventLayouts, long minimumDurationMillis, boolean doAlldayEvents) {
-        final ArrayList<EventLayout> activeList = new ArrayList<EventLayout>();
-        final ArrayList<EventLayout> groupList = new ArrayList<EventLayout>();
 
+    /**
+     * Same as {@link #computePositions(ArrayList, long, int)}, but assigns the
+     * columns with the given strategy.
+     */
+    public static void computePositions(ArrayList<EventLayout> eventsList,
+            long minimumDurationMillis, int maxVisibleColumns, LayoutStrategy strategy) {
+        if (eventsList == null) {
+            return;
+        }
         if (minimumDurationMillis < 0) {
             minimumDurationMillis = 0;
         }
 
-        long colMask = 0;
-        int maxCols = 0;
-        for (EventLayout eventLayout : eventLayouts) {
-            // Process all-day events separately
-            if (eventLayout.getEvent().drawAsAllday() != doAlldayEvents)
-                continue;
-
-           if (!doAlldayEvents) {
-                colMask = removeNonAlldayActiveEvents(
-                        eventLayout, activeList.iterator(), minimumDurationMillis, colMask);
-            } else {
-                colMask = removeAlldayActiveEvents(eventLayout, activeList.iterator(), colMask);
-            }
-
-            // If the active list is empty, then reset the max columns, clear
-            // the column bit mask, and empty the groupList.
-            if (activeList.isEmpty()) {
-                for (EventLayout ev : groupList) {
-                    ev.setMaxColumns(maxCols);
-                }
-                maxCols = 0;
-                colMask = 0;
-                groupList.clear();
-            }
-
-            // Find the first empty column.  Empty columns are represented by
-            // zero bits in the column mask "colMask".
-            int col = findFirstZeroBit(colMask);
-            if (col == 64)
-                col = 63;
-            colMask |= (1L << col);
-            eventLayout.setColumn(col);
-            activeList.add(eventLayout);
-            groupList.add(eventLayout);
-            int len = activeList.size();
-            if (maxCols < len)
-                maxCols = len;
-        }
-        for (EventLayout ev : groupList) {
-            ev.setMaxColumns(maxCols);
-        }
-    }
-
-    private static long removeAlldayActiveEvents(EventLayout event, Iterator<EventLayout> iter, long colMask) {
-        // Remove the inactive allday events. An event on the active list
-        // becomes inactive when the end day is less than the current event's
-        // start day.
-        while (iter.hasNext()) {
-            final EventLayout active = iter.next();
-            if (active.getEvent().getEndDay() < event.getEvent().getStartDay()) {
-                colMask &= ~(1L << active.getColumn());
-                iter.remove();
-            }
-        }
-        return colMask;
-    }
-
-    private static long removeNonAlldayActiveEvents(
-            EventLayout eventLayout, Iterator<EventLayout> iterator, long minDurationMillis, long colMask) {
-        long start = eventLayout.getEvent().getStartMillis();
-        // Remove the inactive events. An event on the active list
-        // becomes inactive when its end time is less than or equal to
-        // the current event's start time.
-        while (iterator.hasNext()) {
-            final EventLayout active = iterator.next();
-
-            final long duration = Math.max(
-                    active.getEvent().getEndMillis() - active.getEvent().getStartMillis(), minDurationMillis);
-            if ((active.getEvent().getStartMillis() + duration) <= start) {
-                colMask &= ~(1L << active.getColumn());
-                iterator.remove();
-            }
-        }
-        return colMask;
+        // Compute the column positions separately for the all-day events
+        strategy.computePositions(eventsList, minimumDurationMillis, maxVisibleColumns, false);
+        strategy.computePositions(eventsList, minimumDurationMillis, 0, true);
     }
 
     public static int findFirstZeroBit(long val) {
-        for (int ii = 0; ii < 64; ++ii) {
-            if ((val & (1L << ii)) == 0)
-                return ii;
-        }
-        return 64;
+        // Returns 64 when every bit is set
+        return Long.numberOfTrailingZeros(~val);
     }
 
     public Event getEvent() {
@@ -253,6 +196,21 @@ public class EventLayout {
     public void setNextDown(EventLayout nextDown) {
         this.nextDown = nextDown;
     }
+
+    /**
+     * @return true if this event is hidden behind its group's "+N" marker
+     */
+    public boolean isOverflow() {
+        return mOverflow != null;
+    }
+
+    public EventOverflow getOverflow() {
+        return mOverflow;
+    }
+
+    void setOverflow(EventOverflow overflow) {
+        mOverflow = overflow;
+    }
     
 
 }
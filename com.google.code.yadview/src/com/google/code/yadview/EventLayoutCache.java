@@ -0,0 +1,190 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Skips {@link EventLayout#computePositions(ArrayList, long, int)} when the
+ * result would be the same as last time.
+ * <p>
+ * The minimum duration only matters through the comparisons "does event A,
+ * stretched to the minimum duration, end at or before the start of event B".
+ * After each layout we work out the range of minimum durations for which every
+ * stretched end falls between the same two event starts. While the minimum
+ * duration stays in that range (for example during a pinch-zoom) the columns
+ * cannot change and the layout pass is skipped.
+ */
+public class EventLayoutCache {
+
+    private LayoutStrategy mStrategy = new ArrayLayoutStrategy();
+    private boolean mValid;
+    private int mGeneration;
+    private int mMaxVisibleColumns;
+
+    // The minimum durations that give the cached layout, (low, high]
+    private long mMinDurationLow;
+    private long mMinDurationHigh;
+
+    /**
+     * Lays out the events unless they were already laid out for the same
+     * generation and an equivalent minimum duration.
+     *
+     * @param eventsList the events, sorted into increasing time order
+     * @param generation changes whenever the contents of eventsList change
+     * @param minimumDurationMillis see {@link EventLayout#computePositions(ArrayList, long)}
+     * @param maxVisibleColumns see {@link EventLayout#computePositions(ArrayList, long, int)}
+     * @return true if the positions were recomputed
+     */
+    public boolean computePositions(ArrayList<EventLayout> eventsList, int generation,
+            long minimumDurationMillis, int maxVisibleColumns) {
+        if (eventsList == null) {
+            return false;
+        }
+        if (minimumDurationMillis < 0) {
+            minimumDurationMillis = 0;
+        }
+
+        if (mValid && mGeneration == generation && mMaxVisibleColumns == maxVisibleColumns
+                && minimumDurationMillis > mMinDurationLow
+                && minimumDurationMillis <= mMinDurationHigh) {
+            return false;
+        }
+
+        EventLayout.computePositions(eventsList, minimumDurationMillis, maxVisibleColumns, mStrategy);
+        computeStableRange(eventsList, minimumDurationMillis);
+        mGeneration = generation;
+        mMaxVisibleColumns = maxVisibleColumns;
+        mValid = true;
+        return true;
+    }
+
+    /**
+     * Lays out only some of the events, for when a few of them changed. The
+     * others must still hold a layout for an equivalent minimum duration,
+     * and the ones given must make up whole overlap groups together with all
+     * the all-day events.
+     *
+     * @param eventsList all the events, sorted into increasing time order
+     * @param changedList the events to lay out, in the same order
+     */
+    void computePositions(ArrayList<EventLayout> eventsList, ArrayList<EventLayout> changedList,
+            int generation, long minimumDurationMillis, int maxVisibleColumns) {
+        if (minimumDurationMillis < 0) {
+            minimumDurationMillis = 0;
+        }
+        EventLayout.computePositions(changedList, minimumDurationMillis, maxVisibleColumns,
+                mStrategy);
+        computeStableRange(eventsList, minimumDurationMillis);
+        mGeneration = generation;
+        mMaxVisibleColumns = maxVisibleColumns;
+        mValid = true;
+    }
+
+    /**
+     * @return true if the events were last laid out for a minimum duration
+     *         and column limit equivalent to the given ones
+     */
+    boolean isValidFor(long minimumDurationMillis, int maxVisibleColumns) {
+        if (minimumDurationMillis < 0) {
+            minimumDurationMillis = 0;
+        }
+        return mValid && mMaxVisibleColumns == maxVisibleColumns
+                && minimumDurationMillis > mMinDurationLow
+                && minimumDurationMillis <= mMinDurationHigh;
+    }
+
+    LayoutStrategy getLayoutStrategy() {
+        return mStrategy;
+    }
+
+    /**
+     * Sets the strategy used to assign columns. Forces the next call to
+     * {@link #computePositions} to lay out the events again.
+     */
+    public void setLayoutStrategy(LayoutStrategy strategy) {
+        mStrategy = strategy;
+        mValid = false;
+    }
+
+    /**
+     * Forces the next call to {@link #computePositions} to lay out the events.
+     */
+    public void invalidate() {
+        mValid = false;
+    }
+
+    private void computeStableRange(ArrayList<EventLayout> eventsList, long minDurationMillis) {
+        final int size = eventsList.size();
+        long[] starts = new long[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            Event event = eventsList.get(i).getEvent();
+            if (!event.drawAsAllday()) {
+                starts[count++] = event.getStartMillis();
+            }
+        }
+        Arrays.sort(starts, 0, count);
+
+        long low = Long.MIN_VALUE;
+        long high = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Event event = eventsList.get(i).getEvent();
+            if (event.drawAsAllday()) {
+                continue;
+            }
+            final long start = event.getStartMillis();
+            final long duration = event.getEndMillis() - start;
+            final long end = start + Math.max(duration, minDurationMillis);
+
+            // The first event that starts at or after this one's end is the
+            // first one it no longer overlaps. Keep the end in the same gap.
+            final int next = lowerBound(starts, count, end);
+            if (next < count) {
+                high = Math.min(high, starts[next] - start);
+            }
+            // When the minimum duration is not stretching this event, any
+            // smaller minimum duration gives the same end.
+            if (minDurationMillis > duration) {
+                long eventLow = duration;
+                if (next > 0) {
+                    eventLow = Math.max(eventLow, starts[next - 1] - start);
+                }
+                low = Math.max(low, eventLow);
+            }
+        }
+        mMinDurationLow = low;
+        mMinDurationHigh = high;
+    }
+
+    // Returns the index of the first value that is >= key
+    private static int lowerBound(long[] values, int count, long key) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (values[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,394 @@
+/*
+Copyright 2013 Chris Pope
+
+Copyright (C) 2007 The Android Open Source Project
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Everything {@link DayView} needs to draw a range of days, worked out on the
+ * loader thread: the wrapped events with their columns, the all-day subset and
+ * the per-day summaries. Once published it is not modified by the loader, so
+ * the view can take it over by swapping a reference.
+ */
+public class EventLayoutSnapshot {
+
+    private final int mFirstJulianDay;
+    private final int mNumDays;
+    private final int mGeneration;
+    private final ArrayList<Event> mEvents;
+    private final ArrayList<EventLayout> mLayouts;
+    private final ArrayList<EventLayout> mAllDayLayouts;
+    private final EventLayoutCache mLayoutCache;
+    private final EventDayIndex mDayIndex;
+
+    // Number of all-day events on each day
+    private final int[] mAllDayEventCounts;
+    private final boolean[] mHasAllDayEvent;
+    private final int[] mEarliestStartHour;
+    private final int mMaxAllDayEvents;
+
+    private EventLayoutSnapshot(int firstJulianDay, int numDays, int generation,
+            ArrayList<Event> events, ArrayList<EventLayout> layouts,
+            ArrayList<EventLayout> allDayLayouts, EventLayoutCache layoutCache,
+            EventDayIndex dayIndex, int[] allDayEventCounts, boolean[] hasAllDayEvent, int[] earliestStartHour,
+            int maxAllDayEvents) {
+        mFirstJulianDay = firstJulianDay;
+        mNumDays = numDays;
+        mGeneration = generation;
+        mEvents = events;
+        mLayouts = layouts;
+        mAllDayLayouts = allDayLayouts;
+        mLayoutCache = layoutCache;
+        mDayIndex = dayIndex;
+        mAllDayEventCounts = allDayEventCounts;
+        mHasAllDayEvent = hasAllDayEvent;
+        mEarliestStartHour = earliestStartHour;
+        mMaxAllDayEvents = maxAllDayEvents;
+    }
+
+    /**
+     * Wraps and lays out the given events. This does not touch any view state
+     * and may be called on any thread.
+     *
+     * @param events the events, sorted into increasing time order
+     * @param firstJulianDay the first day shown
+     * @param numDays the number of days shown
+     * @param generation identifies this set of events to {@link EventLayoutCache}
+     * @param minimumDurationMillis see {@link EventLayout#computePositions(ArrayList, long)}
+     * @param maxVisibleColumns see {@link EventLayout#computePositions(ArrayList, long, int)}
+     */
+    public static EventLayoutSnapshot build(List<Event> events, int firstJulianDay, int numDays,
+            int generation, long minimumDurationMillis, int maxVisibleColumns) {
+        final int lastJulianDay = firstJulianDay + numDays - 1;
+        final int len = events.size();
+        final ArrayList<Event> eventList = new ArrayList<Event>(events);
+        final ArrayList<EventLayout> layouts = new ArrayList<EventLayout>(len);
+        final ArrayList<EventLayout> allDayLayouts = new ArrayList<EventLayout>();
+        for (int ii = 0; ii < len; ii++) {
+            EventLayout layout = new EventLayout(eventList.get(ii));
+            layouts.add(layout);
+            // share references between the layouts and the all-day subset
+            if (layout.getEvent().drawAsAllday()) {
+                allDayLayouts.add(layout);
+            }
+        }
+
+        final EventLayoutCache layoutCache = new EventLayoutCache();
+        layoutCache.computePositions(layouts, generation, minimumDurationMillis, maxVisibleColumns);
+        return summarize(firstJulianDay, numDays, generation, eventList, layouts, allDayLayouts,
+                layoutCache);
+    }
+
+    // Indexes the laid out events and works out the per-day summaries
+    private static EventLayoutSnapshot summarize(int firstJulianDay, int numDays, int generation,
+            ArrayList<Event> eventList, ArrayList<EventLayout> layouts,
+            ArrayList<EventLayout> allDayLayouts, EventLayoutCache layoutCache) {
+        final int lastJulianDay = firstJulianDay + numDays - 1;
+        final int len = eventList.size();
+        final EventDayIndex dayIndex = new EventDayIndex(layouts, firstJulianDay, numDays);
+
+        // Make a pass over all the events, and keep track of the maximum
+        // number of all-day events in any one day. Also, keep track of
+        // the earliest event in each day.
+        int maxAllDayEvents = 0;
+        final int[] eventsCount = new int[numDays];
+        final boolean[] hasAllDayEvent = new boolean[numDays];
+        final int[] earliestStartHour = new int[numDays];
+        Arrays.fill(earliestStartHour, 25); // some big number
+        for (int ii = 0; ii < len; ii++) {
+            Event event = eventList.get(ii);
+            if (event.getStartDay() > lastJulianDay || event.getEndDay() < firstJulianDay) {
+                continue;
+            }
+            if (event.drawAsAllday()) {
+                // Count all the events being drawn as allDay events
+                final int firstDay = Math.max(event.getStartDay(), firstJulianDay);
+                final int lastDay = Math.min(event.getEndDay(), lastJulianDay);
+                for (int day = firstDay; day <= lastDay; day++) {
+                    final int count = ++eventsCount[day - firstJulianDay];
+                    if (maxAllDayEvents < count) {
+                        maxAllDayEvents = count;
+                    }
+                    hasAllDayEvent[day - firstJulianDay] = true;
+                }
+            } else {
+                int daynum = event.getStartDay() - firstJulianDay;
+                int hour = event.getStartTime() / 60;
+                if (daynum >= 0 && hour < earliestStartHour[daynum]) {
+                    earliestStartHour[daynum] = hour;
+                }
+
+                // Also check the end hour in case the event spans more than
+                // one day.
+                daynum = event.getEndDay() - firstJulianDay;
+                hour = event.getEndTime() / 60;
+                if (daynum < numDays && hour < earliestStartHour[daynum]) {
+                    earliestStartHour[daynum] = hour;
+                }
+            }
+        }
+
+        return new EventLayoutSnapshot(firstJulianDay, numDays, generation, eventList, layouts,
+                allDayLayouts, layoutCache, dayIndex, eventsCount, hasAllDayEvent, earliestStartHour,
+                maxAllDayEvents);
+    }
+
+    /**
+     * Applies a delta computed for this snapshot's range. Only the overlap
+     * groups that gain, lose or change an event are laid out again, along
+     * with the all-day events; the other layouts are shared with this
+     * snapshot, which is left as it was. Call on the thread that owns this
+     * snapshot.
+     *
+     * @param delta the changes, computed for the days of this snapshot
+     * @param generation identifies the new set of events to {@link EventLayoutCache}
+     * @param minimumDurationMillis see {@link EventLayout#computePositions(ArrayList, long)}
+     * @param maxVisibleColumns see {@link EventLayout#computePositions(ArrayList, long, int)}
+     */
+    public EventLayoutSnapshot withDelta(EventDelta delta, int generation,
+            long minimumDurationMillis, int maxVisibleColumns) {
+        if (minimumDurationMillis < 0) {
+            minimumDurationMillis = 0;
+        }
+
+        // The instances whose old versions go
+        final ArrayList<Event> outgoing = new ArrayList<Event>(delta.getRemoved());
+        outgoing.addAll(delta.getChanged());
+        final ArrayList<Event> incoming = new ArrayList<Event>(delta.getAdded());
+        incoming.addAll(delta.getChanged());
+        return merge(outgoing, incoming, generation, minimumDurationMillis, maxVisibleColumns,
+                !mLayoutCache.isValidFor(minimumDurationMillis, maxVisibleColumns));
+    }
+
+    /**
+     * Adds more events of this snapshot's range, for a load that is still
+     * streaming in. As with {@link #withDelta} only the overlap groups the
+     * events join are laid out again. This snapshot must have been laid out
+     * for the same minimum duration and column limit. Its layout cache is
+     * not consulted, so this may run on the loader thread after the snapshot
+     * was handed to the UI thread.
+     *
+     * @param added events that are not in this snapshot yet
+     */
+    EventLayoutSnapshot withAddedEvents(List<Event> added, int generation,
+            long minimumDurationMillis, int maxVisibleColumns) {
+        if (minimumDurationMillis < 0) {
+            minimumDurationMillis = 0;
+        }
+        return merge(new ArrayList<Event>(), new ArrayList<Event>(added), generation,
+                minimumDurationMillis, maxVisibleColumns, false);
+    }
+
+    // Replaces the outgoing instances by the incoming ones. Reads nothing
+    // the UI thread changes unless relayoutAll is worked out from it.
+    private EventLayoutSnapshot merge(ArrayList<Event> outgoing, ArrayList<Event> incoming,
+            int generation, long minimumDurationMillis, int maxVisibleColumns,
+            boolean relayoutAll) {
+        Collections.sort(outgoing, EventDelta.INSTANCE_ORDER);
+
+        final int size = mEvents.size();
+        final ArrayList<Event> keptEvents = new ArrayList<Event>(size);
+        final ArrayList<EventLayout> keptLayouts = new ArrayList<EventLayout>(size);
+        // Time spans of the timed events that go, laid out as the strategy
+        // sees them
+        final long[] goneStarts = new long[outgoing.size()];
+        final long[] goneEnds = new long[outgoing.size()];
+        int numGone = 0;
+        for (int i = 0; i < size; i++) {
+            final Event event = mEvents.get(i);
+            if (outgoing.isEmpty()
+                    || Collections.binarySearch(outgoing, event, EventDelta.INSTANCE_ORDER) < 0) {
+                keptEvents.add(event);
+                keptLayouts.add(mLayouts.get(i));
+            } else if (!event.drawAsAllday() && numGone < goneStarts.length) {
+                goneStarts[numGone] = event.getStartMillis();
+                goneEnds[numGone] = stretchedEnd(event, minimumDurationMillis);
+                numGone++;
+            }
+        }
+
+        // Merge in the new versions where a load would have put them: after
+        // the events that sort the same, in the order they came
+        Collections.sort(incoming, EventDelta.DISPLAY_ORDER);
+        final Set<EventLayout> fresh = Collections.newSetFromMap(
+                new IdentityHashMap<EventLayout, Boolean>());
+        final ArrayList<Event> eventList = new ArrayList<Event>(keptEvents.size()
+                + incoming.size());
+        final ArrayList<EventLayout> layouts = new ArrayList<EventLayout>(keptEvents.size()
+                + incoming.size());
+        int kept = 0;
+        for (Event event : incoming) {
+            while (kept < keptEvents.size()
+                    && EventDelta.DISPLAY_ORDER.compare(keptEvents.get(kept), event) <= 0) {
+                eventList.add(keptEvents.get(kept));
+                layouts.add(keptLayouts.get(kept));
+                kept++;
+            }
+            EventLayout layout = new EventLayout(event);
+            eventList.add(event);
+            layouts.add(layout);
+            fresh.add(layout);
+        }
+        eventList.addAll(keptEvents.subList(kept, keptEvents.size()));
+        layouts.addAll(keptLayouts.subList(kept, keptLayouts.size()));
+
+        // Find the overlap groups of the timed events the same way the
+        // layout strategies do: a group ends when the next event starts at or
+        // after the end of every event in it.
+        final int len = layouts.size();
+        final int[] groups = new int[len];
+        final boolean[] dirtyGroups = new boolean[len + 1];
+        int group = -1;
+        long groupStart = 0;
+        long groupEnd = Long.MIN_VALUE;
+        for (int i = 0; i <= len; i++) {
+            final Event event = i < len ? layouts.get(i).getEvent() : null;
+            if (event != null && event.drawAsAllday()) {
+                groups[i] = -1;
+                continue;
+            }
+            if (event == null || event.getStartMillis() >= groupEnd) {
+                // Close the current group
+                if (group >= 0) {
+                    for (int k = 0; k < numGone && !dirtyGroups[group]; k++) {
+                        dirtyGroups[group] = goneStarts[k] <= groupEnd && goneEnds[k] >= groupStart;
+                    }
+                }
+                if (event == null) {
+                    break;
+                }
+                group++;
+                groupStart = event.getStartMillis();
+                groupEnd = Long.MIN_VALUE;
+            }
+            groups[i] = group;
+            groupEnd = Math.max(groupEnd, stretchedEnd(event, minimumDurationMillis));
+            if (relayoutAll || fresh.contains(layouts.get(i))) {
+                dirtyGroups[group] = true;
+            }
+        }
+
+        // Lay out new copies of the dirty groups and of all the all-day
+        // events, which are few, so that this snapshot's layouts stay intact
+        final ArrayList<EventLayout> changedLayouts = new ArrayList<EventLayout>();
+        final ArrayList<EventLayout> allDayLayouts = new ArrayList<EventLayout>();
+        for (int i = 0; i < len; i++) {
+            EventLayout layout = layouts.get(i);
+            if (groups[i] >= 0 && !dirtyGroups[groups[i]]) {
+                continue;
+            }
+            if (!fresh.contains(layout)) {
+                layout = new EventLayout(layout.getEvent());
+                layouts.set(i, layout);
+            }
+            changedLayouts.add(layout);
+            if (groups[i] < 0) {
+                allDayLayouts.add(layout);
+            }
+        }
+
+        final EventLayoutCache layoutCache = new EventLayoutCache();
+        layoutCache.setLayoutStrategy(mLayoutCache.getLayoutStrategy());
+        layoutCache.computePositions(layouts, changedLayouts, generation, minimumDurationMillis,
+                maxVisibleColumns);
+        return summarize(mFirstJulianDay, mNumDays, generation, eventList, layouts,
+                allDayLayouts, layoutCache);
+    }
+
+    private static long stretchedEnd(Event event, long minimumDurationMillis) {
+        final long start = event.getStartMillis();
+        return start + Math.max(event.getEndMillis() - start, minimumDurationMillis);
+    }
+
+    public int getFirstJulianDay() {
+        return mFirstJulianDay;
+    }
+
+    public int getNumDays() {
+        return mNumDays;
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return the loaded events. Callers must not modify the list.
+     */
+    public ArrayList<Event> getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * @return one layout per event, with columns assigned. The UI thread takes
+     * over these objects once the snapshot is handed to it.
+     */
+    public ArrayList<EventLayout> getLayouts() {
+        return mLayouts;
+    }
+
+    /**
+     * @return the layouts that are drawn in the all-day area, shared with
+     * {@link #getLayouts()}
+     */
+    public ArrayList<EventLayout> getAllDayLayouts() {
+        return mAllDayLayouts;
+    }
+
+    /**
+     * @return the cache that produced the column assignments, so that later
+     * layouts for the same events can be skipped
+     */
+    public EventLayoutCache getLayoutCache() {
+        return mLayoutCache;
+    }
+
+    /**
+     * @return the timed events grouped by day
+     */
+    public EventDayIndex getDayIndex() {
+        return mDayIndex;
+    }
+
+    public int getAllDayEventCount(int dayOffset) {
+        return mAllDayEventCounts[dayOffset];
+    }
+
+    public boolean hasAllDayEvent(int dayOffset) {
+        return mHasAllDayEvent[dayOffset];
+    }
+
+    /**
+     * @return the hour the first timed event starts on the given day, or 25
+     * if there is none
+     */
+    public int getEarliestStartHour(int dayOffset) {
+        return mEarliestStartHour[dayOffset];
+    }
+
+    public int getMaxAllDayEvents() {
+        return mMaxAllDayEvents;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+package com.google.code.yadview;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The events of one completed load, published by {@link DayViewEventLoader}.
+ * Never changes once built, so the UI thread can keep the list it holds
+ * without copying it.
+ *
+ * @see DayViewEventLoader#getLoadedEvents()
+ */
+public final class EventLoadResult {
+
+    private final int mVersion;
+    private final int mStartDay;
+    private final int mNumDays;
+    private final List<Event> mEvents;
+
+    EventLoadResult(int version, int startDay, int numDays, List<Event> events) {
+        mVersion = version;
+        mStartDay = startDay;
+        mNumDays = numDays;
+        mEvents = Collections.unmodifiableList(events);
+    }
+
+    /**
+     * @return the number returned by the
+     *         {@link DayViewEventLoader#loadEventsInBackground} call that
+     *         produced this result
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public int getStartDay() {
+        return mStartDay;
+    }
+
+    public int getNumDays() {
+        return mNumDays;
+    }
+
+    /**
+     * @return the events, sorted into increasing time order. The list cannot
+     *         be modified.
+     */
+    public List<Event> getEvents() {
+        return mEvents;
+    }
+}
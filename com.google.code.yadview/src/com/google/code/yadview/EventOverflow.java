@@ -0,0 +1,55 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The events of one overlap group that did not fit in the visible columns.
+ * They are drawn as a single "+N" marker rather than as rectangles.
+ *
+ * @see EventLayout#computePositions(ArrayList, long, int)
+ */
+public class EventOverflow {
+
+    private final ArrayList<EventLayout> mHiddenEvents = new ArrayList<EventLayout>();
+
+    void add(EventLayout event) {
+        mHiddenEvents.add(event);
+    }
+
+    /**
+     * @return the hidden events, in the order they were laid out
+     */
+    public List<EventLayout> getHiddenEvents() {
+        return Collections.unmodifiableList(mHiddenEvents);
+    }
+
+    /**
+     * @return the earliest hidden event, where the marker is anchored
+     */
+    public EventLayout getFirstHiddenEvent() {
+        return mHiddenEvents.get(0);
+    }
+
+    public int getCount() {
+        return mHiddenEvents.size();
+    }
+}
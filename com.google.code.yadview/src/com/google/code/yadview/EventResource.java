@@ -21,6 +21,14 @@ package com.google.code.yadview;
 
 import java.util.List;
 
+/**
+ * Where a {@link DayView} gets its events from. A {@link DayViewEventLoader}
+ * calls these methods from several worker threads at once: a load of the
+ * visible days can run alongside prefetches of the neighbouring windows and
+ * scans for day markers. Implementations must therefore be thread-safe. Wrap
+ * one that is not in a
+ * {@link com.google.code.yadview.impl.SerializedEventResource}.
+ */
 public interface EventResource {
     
     public static final int ACCESS_LEVEL_NONE = 0;
@@ -30,6 +38,33 @@ public interface EventResource {
     
     List<Event> get(int startJulianDay, int numDays,Predicate continueLoading);
 
+    /**
+     * Same as {@link #get(int, int, Predicate)}, but hands the events to the
+     * sink in batches as they are loaded instead of returning them all at the
+     * end. Each kind of event (timed and all-day) arrives in the order get()
+     * would list it.
+     */
+    public void get(int startJulianDay, int numDays, EventSink sink, Predicate continueLoading);
+
+    /**
+     * Same as {@link #get(int, int, EventSink, Predicate)}, but the events
+     * that can show between focusStartMinute and focusEndMinute of a day
+     * (the hours on screen) may be handed over before the others. Each of
+     * the two parts is in get() order, but the batches as a whole need not
+     * be. {@link AbstractEventResource} ignores the focus.
+     */
+    public void get(int startJulianDay, int numDays, int focusStartMinute, int focusEndMinute,
+            EventSink sink, Predicate continueLoading);
+
+    /**
+     * Marks which days of a range have at least one event. Sets eventDays[i]
+     * for each of the numDays days starting at startJulianDay.
+     * {@link AbstractEventResource} implements this with a single
+     * {@link #get(int, int, Predicate)} over the whole range.
+     */
+    public void getEventDays(int startJulianDay, int numDays, boolean[] eventDays,
+            Predicate continueLoading);
+
     public int getEventAccessLevel(Event e);
     
     
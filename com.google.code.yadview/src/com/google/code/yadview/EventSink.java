@@ -0,0 +1,35 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+package com.google.code.yadview;
+
+import java.util.List;
+
+/**
+ * Receives the events of a range in batches as an {@link EventResource}
+ * produces them.
+ *
+ * @see EventResource#get(int, int, EventSink, Predicate)
+ */
+public interface EventSink {
+
+    /**
+     * Called with the next batch of events, in the order
+     * {@link EventResource#get(int, int, Predicate)} would list them. Called on
+     * the loading thread.
+     */
+    public void onEvents(List<Event> events);
+}
@@ -0,0 +1,43 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview;
+
+import java.util.ArrayList;
+
+/**
+ * Assigns a column and a column count to each event. The result is stored in
+ * the {@link EventLayout}s through {@link EventLayout#setColumn(int)},
+ * {@link EventLayout#setMaxColumns(int)} and the overflow marker.
+ *
+ * @see EventLayout#computePositions(ArrayList, long, int, LayoutStrategy)
+ */
+public interface LayoutStrategy {
+
+    /**
+     * Lays out either the timed events or the all-day events of the list,
+     * leaving the others untouched.
+     *
+     * @param eventLayouts the events, sorted into increasing time order
+     * @param minimumDurationMillis minimum duration of a timed event, never negative
+     * @param maxVisibleColumns the largest number of columns an overlap group
+     * may use, or 0 for no limit
+     * @param doAlldayEvents true to lay out the all-day events, false for the others
+     */
+    void computePositions(ArrayList<EventLayout> eventLayouts, long minimumDurationMillis,
+            int maxVisibleColumns, boolean doAlldayEvents);
+}
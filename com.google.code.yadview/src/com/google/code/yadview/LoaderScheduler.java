@@ -0,0 +1,55 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+package com.google.code.yadview;
+
+/**
+ * Runs the callbacks of a {@link DayViewEventLoader} on the UI thread and
+ * tells the time the loader uses for its timeouts. Android code uses
+ * {@link com.google.code.yadview.impl.HandlerLoaderScheduler};
+ * {@link com.google.code.yadview.impl.ManualLoaderScheduler} runs the
+ * callbacks on demand against a clock that only moves when told to.
+ */
+public interface LoaderScheduler {
+
+    /**
+     * Runs the callback on the UI thread. May be called from any thread.
+     */
+    public void post(Runnable callback);
+
+    /**
+     * Runs the callback on the UI thread once the given time has passed.
+     */
+    public void postDelayed(Runnable callback, long delayMillis);
+
+    /**
+     * Drops the posted runs of the callback that have not happened yet.
+     */
+    public void removeCallbacks(Runnable callback);
+
+    /**
+     * @return the current time in milliseconds, on a clock that does not
+     *         jump with the wall clock
+     */
+    public long uptimeMillis();
+
+    /**
+     * Told about a request that failed on a worker. The request was given
+     * up and its cancel callbacks posted; the worker carries on with the
+     * next one. May be called from any thread.
+     */
+    public void reportError(String message, RuntimeException error);
+}
@@ -0,0 +1,34 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview;
+
+/**
+ * Runs the workers of a {@link DayViewEventLoader}, normally each on a thread
+ * of its own.
+ */
+public interface LoaderThreadFactory {
+
+    /**
+     * @param name the name for the thread
+     * @param threadPriority the priority the worker wants, one of the
+     *            android.os.Process THREAD_PRIORITY_ values
+     * @param worker what to run. Its {@link LoaderWorker#run()} returns
+     *            once the loader stops it.
+     */
+    public void startWorker(String name, int threadPriority, LoaderWorker worker);
+}
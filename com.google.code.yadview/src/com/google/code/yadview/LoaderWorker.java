@@ -0,0 +1,46 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview;
+
+/**
+ * One worker of a {@link DayViewEventLoader} lane, handed to
+ * {@link LoaderThreadFactory#startWorker}.
+ */
+public interface LoaderWorker extends Runnable {
+
+    /**
+     * Serves requests, waiting for them and for the lanes with a higher
+     * priority, until the loader stops this worker.
+     */
+    @Override
+    public void run();
+
+    /**
+     * Serves the next request if there is one and the lanes with a higher
+     * priority are idle, without waiting. Lets a loader be run step by step
+     * on the calling thread.
+     *
+     * @return true if a request was served
+     */
+    public boolean runOnce();
+
+    /**
+     * @return true once the loader has stopped this worker
+     */
+    public boolean isStopped();
+}
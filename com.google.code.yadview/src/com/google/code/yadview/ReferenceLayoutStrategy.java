@@ -0,0 +1,123 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+/**
+ * The object based sweep line layout: one heap entry per active event and
+ * the results written straight into the {@link EventLayout}s. Kept as the
+ * reference that {@link ArrayLayoutStrategy} must agree with.
+ */
+public class ReferenceLayoutStrategy implements LayoutStrategy {
+
+    @Override
+    public void computePositions(ArrayList<EventLayout> eventLayouts, long minimumDurationMillis,
+            int maxVisibleColumns, boolean doAlldayEvents) {
+        // Events that still overlap the sweep position, ordered by the point at
+        // which they stop overlapping so expired events come off the head.
+        final PriorityQueue<ActiveEvent> activeQueue = new PriorityQueue<ActiveEvent>();
+        final ColumnAllocator columns = new ColumnAllocator();
+        final ArrayList<EventLayout> groupList = new ArrayList<EventLayout>();
+
+        EventOverflow overflow = null;
+        int maxCols = 0;
+        for (EventLayout eventLayout : eventLayouts) {
+            // Process all-day events separately
+            final Event event = eventLayout.getEvent();
+            if (event.drawAsAllday() != doAlldayEvents)
+                continue;
+
+            // An all-day event becomes inactive when its end day is less than
+            // the current event's start day. Any other event becomes inactive
+            // when its end time (stretched to the minimum duration) is less
+            // than or equal to the current event's start time.
+            final long start;
+            final long end;
+            if (doAlldayEvents) {
+                start = event.getStartDay();
+                end = event.getEndDay() + 1L;
+            } else {
+                start = event.getStartMillis();
+                end = start + Math.max(event.getEndMillis() - start, minimumDurationMillis);
+            }
+
+            while (!activeQueue.isEmpty() && activeQueue.peek().end <= start) {
+                columns.release(activeQueue.poll().column);
+            }
+
+            // If the active list is empty, then reset the max columns, free
+            // all the columns, and empty the groupList.
+            if (activeQueue.isEmpty()) {
+                setMaxColumns(groupList, maxCols, maxVisibleColumns);
+                maxCols = 0;
+                overflow = null;
+                columns.clear();
+                groupList.clear();
+            }
+
+            // Take the lowest column that is not used by an active event.
+            int col = columns.allocate();
+            eventLayout.setColumn(col);
+            if (maxVisibleColumns > 0 && col >= maxVisibleColumns) {
+                if (overflow == null) {
+                    overflow = new EventOverflow();
+                }
+                overflow.add(eventLayout);
+                eventLayout.setOverflow(overflow);
+            } else {
+                eventLayout.setOverflow(null);
+            }
+            activeQueue.add(new ActiveEvent(end, col));
+            groupList.add(eventLayout);
+            int len = activeQueue.size();
+            if (maxCols < len)
+                maxCols = len;
+        }
+        setMaxColumns(groupList, maxCols, maxVisibleColumns);
+    }
+
+    private static void setMaxColumns(ArrayList<EventLayout> groupList, int maxCols, int maxVisibleColumns) {
+        if (maxVisibleColumns > 0 && maxCols > maxVisibleColumns) {
+            maxCols = maxVisibleColumns;
+        }
+        for (EventLayout ev : groupList) {
+            ev.setMaxColumns(maxCols);
+        }
+    }
+
+    /**
+     * Entry in the sweep-line active queue: the column an event occupies and
+     * the point at which it stops overlapping later events.
+     */
+    private static final class ActiveEvent implements Comparable<ActiveEvent> {
+        final long end;
+        final int column;
+
+        ActiveEvent(long end, int column) {
+            this.end = end;
+            this.column = column;
+        }
+
+        @Override
+        public int compareTo(ActiveEvent another) {
+            return end < another.end ? -1 : (end == another.end ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview.impl;
+
+import android.os.Process;
+
+import com.google.code.yadview.LoaderThreadFactory;
+import com.google.code.yadview.LoaderWorker;
+
+/**
+ * Runs each worker on a thread that sets its Linux thread priority first.
+ */
+public class AndroidLoaderThreadFactory implements LoaderThreadFactory {
+
+    @Override
+    public void startWorker(String name, final int threadPriority, final LoaderWorker worker) {
+        new Thread(name) {
+            @Override
+            public void run() {
+                Process.setThreadPriority(threadPriority);
+                worker.run();
+            }
+        }.start();
+    }
+}
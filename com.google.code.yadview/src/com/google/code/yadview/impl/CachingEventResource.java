@@ -0,0 +1,307 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+
+package com.google.code.yadview.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.code.yadview.Event;
+import com.google.code.yadview.EventDelta;
+import com.google.code.yadview.EventResource;
+import com.google.code.yadview.EventSink;
+import com.google.code.yadview.Predicate;
+
+/**
+ * Remembers the events of another {@link EventResource} one Julian day at a
+ * time. A request is answered from the cached days it covers, and only the
+ * runs of days that are missing are fetched from the wrapped resource.
+ * <p>
+ * Days are evicted least recently used first once the approximate size of the
+ * cached events passes the budget. Call {@link #invalidate(int, int)} or
+ * {@link #invalidateAll()} when the underlying events change.
+ */
+public class CachingEventResource implements EventResource {
+
+    // Rough cost of a cached day and of an event, not counting its strings
+    private static final int DAY_OVERHEAD_BYTES = 64;
+    private static final int EVENT_OVERHEAD_BYTES = 160;
+
+    private final EventResource mEventResource;
+    private final long mMaxBytes;
+
+    // Guarded by this
+    private final LinkedHashMap<Integer, CachedDay> mDays =
+            new LinkedHashMap<Integer, CachedDay>(16, 0.75f, true);
+    private long mBytes;
+    // Bumped by every invalidation so fetches that started before it are not
+    // stored
+    private int mEpoch;
+
+    private static class CachedDay {
+        // The events touching the day, in the order the resource returned them
+        final ArrayList<Event> events;
+        final long bytes;
+
+        CachedDay(ArrayList<Event> events, long bytes) {
+            this.events = events;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * @param eventResource the resource to cache
+     * @param maxBytes roughly how much memory the cached events may use
+     */
+    public CachingEventResource(EventResource eventResource, long maxBytes) {
+        mEventResource = eventResource;
+        mMaxBytes = maxBytes;
+    }
+
+    @Override
+    public List<Event> get(int startJulianDay, int numDays, Predicate continueLoading) {
+        final ArrayList<Event> events = new ArrayList<Event>();
+        get(startJulianDay, numDays, new EventSink() {
+            @Override
+            public void onEvents(List<Event> batch) {
+                events.addAll(batch);
+            }
+        }, continueLoading);
+        return events;
+    }
+
+    /**
+     * Hands over the cached days one batch per day and passes the batches of
+     * the missing days through as the wrapped resource produces them. Each
+     * event is listed once, under the first day of the range it touches.
+     */
+    @Override
+    public void get(int startJulianDay, int numDays, EventSink sink, Predicate continueLoading) {
+        get(startJulianDay, numDays, false, 0, 0, sink, continueLoading);
+    }
+
+    /**
+     * Like {@link #get(int, int, EventSink, Predicate)}, and passes the focus
+     * on to the wrapped resource for the missing days. What it fetches is
+     * put back into get() order before it is cached.
+     */
+    @Override
+    public void get(int startJulianDay, int numDays, int focusStartMinute, int focusEndMinute,
+            EventSink sink, Predicate continueLoading) {
+        get(startJulianDay, numDays, true, focusStartMinute, focusEndMinute, sink,
+                continueLoading);
+    }
+
+    private void get(final int startJulianDay, int numDays, boolean focused,
+            int focusStartMinute, int focusEndMinute, final EventSink sink,
+            Predicate continueLoading) {
+        final CachedDay[] days = new CachedDay[Math.max(numDays, 0)];
+        int epoch;
+        synchronized (this) {
+            for (int i = 0; i < numDays; i++) {
+                days[i] = mDays.get(startJulianDay + i);
+            }
+            epoch = mEpoch;
+        }
+
+        for (int i = 0; i < numDays;) {
+            if (days[i] != null) {
+                final int day = startJulianDay + i;
+                ArrayList<Event> batch = new ArrayList<Event>();
+                for (Event event : days[i].events) {
+                    if (Math.max(event.getStartDay(), startJulianDay) == day) {
+                        batch.add(event);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    sink.onEvents(batch);
+                }
+                i++;
+                continue;
+            }
+
+            // Fetch each run of missing days with one call
+            int end = i + 1;
+            while (end < numDays && days[end] == null) {
+                end++;
+            }
+            final int runStart = startJulianDay + i;
+            final ArrayList<Event> fetched = new ArrayList<Event>();
+            final EventSink runSink = new EventSink() {
+                @Override
+                public void onEvents(List<Event> events) {
+                    fetched.addAll(events);
+                    // Events that began before the run were listed under
+                    // an earlier day
+                    ArrayList<Event> batch = new ArrayList<Event>(events.size());
+                    for (Event event : events) {
+                        if (Math.max(event.getStartDay(), startJulianDay) >= runStart) {
+                            batch.add(event);
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        sink.onEvents(batch);
+                    }
+                }
+            };
+            if (focused) {
+                mEventResource.get(runStart, end - i, focusStartMinute, focusEndMinute, runSink,
+                        continueLoading);
+            } else {
+                mEventResource.get(runStart, end - i, runSink, continueLoading);
+            }
+            if (!continueLoading.value()) {
+                // Possibly incomplete, do not keep it
+                return;
+            }
+            if (focused) {
+                Collections.sort(fetched, EventDelta.DISPLAY_ORDER);
+            }
+            fill(days, startJulianDay, i, end, fetched);
+            store(days, startJulianDay, i, end, epoch);
+            i = end;
+        }
+    }
+
+    @Override
+    public void getEventDays(int startJulianDay, int numDays, boolean[] eventDays,
+            Predicate continueLoading) {
+        final CachedDay[] days = new CachedDay[Math.max(numDays, 0)];
+        synchronized (this) {
+            for (int i = 0; i < numDays; i++) {
+                days[i] = mDays.get(startJulianDay + i);
+            }
+        }
+
+        // Ask the wrapped resource about each run of days we do not have
+        for (int i = 0; i < numDays;) {
+            if (days[i] != null) {
+                eventDays[i] = !days[i].events.isEmpty();
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < numDays && days[end] == null) {
+                end++;
+            }
+
+            boolean[] runDays = new boolean[end - i];
+            mEventResource.getEventDays(startJulianDay + i, end - i, runDays, continueLoading);
+            System.arraycopy(runDays, 0, eventDays, i, runDays.length);
+            i = end;
+        }
+    }
+
+    @Override
+    public int getEventAccessLevel(Event e) {
+        return mEventResource.getEventAccessLevel(e);
+    }
+
+    /**
+     * @return the resource whose events are cached
+     */
+    public EventResource getEventResource() {
+        return mEventResource;
+    }
+
+    /**
+     * Forgets the cached events of the given days.
+     */
+    public synchronized void invalidate(int startJulianDay, int numDays) {
+        for (int i = 0; i < numDays; i++) {
+            CachedDay day = mDays.remove(startJulianDay + i);
+            if (day != null) {
+                mBytes -= day.bytes;
+            }
+        }
+        mEpoch++;
+    }
+
+    /**
+     * Forgets all cached events.
+     */
+    public synchronized void invalidateAll() {
+        mDays.clear();
+        mBytes = 0;
+        mEpoch++;
+    }
+
+    // Splits the events fetched for days [from, to) of the request into
+    // one list per day.
+    private static void fill(CachedDay[] days, int startJulianDay, int from, int to,
+            List<Event> events) {
+        final int firstDay = startJulianDay + from;
+        final int lastDay = startJulianDay + to - 1;
+        @SuppressWarnings("unchecked")
+        final ArrayList<Event>[] lists = new ArrayList[to - from];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = new ArrayList<Event>();
+        }
+        for (Event event : events) {
+            final int first = Math.max(event.getStartDay(), firstDay);
+            final int last = Math.min(event.getEndDay(), lastDay);
+            for (int day = first; day <= last; day++) {
+                lists[day - firstDay].add(event);
+            }
+        }
+        for (int i = 0; i < lists.length; i++) {
+            long bytes = DAY_OVERHEAD_BYTES;
+            for (Event event : lists[i]) {
+                bytes += estimateBytes(event);
+            }
+            days[from + i] = new CachedDay(lists[i], bytes);
+        }
+    }
+
+    private synchronized void store(CachedDay[] days, int startJulianDay, int from, int to,
+            int epoch) {
+        if (epoch != mEpoch) {
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            CachedDay old = mDays.put(startJulianDay + i, days[i]);
+            if (old != null) {
+                mBytes -= old.bytes;
+            }
+            mBytes += days[i].bytes;
+        }
+
+        Iterator<Map.Entry<Integer, CachedDay>> it = mDays.entrySet().iterator();
+        while (mBytes > mMaxBytes && it.hasNext()) {
+            mBytes -= it.next().getValue().bytes;
+            it.remove();
+        }
+    }
+
+    private static long estimateBytes(Event event) {
+        long bytes = EVENT_OVERHEAD_BYTES;
+        if (event.getTitle() != null) {
+            bytes += 2 * event.getTitle().length();
+        }
+        if (event.getLocation() != null) {
+            bytes += 2 * event.getLocation().length();
+        }
+        if (event.getOrganizer() != null) {
+            bytes += 2 * event.getOrganizer().length();
+        }
+        return bytes;
+    }
+}
@@ -18,6 +18,8 @@ limitations under the License.
 package com.google.code.yadview.impl;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.view.View;
 import android.view.ViewGroup.LayoutParams;
 import android.widget.ViewSwitcher;
@@ -32,6 +34,8 @@ import com.google.code.yadview.DayViewRenderer;
 import com.google.code.yadview.DayViewResources;
 import com.google.code.yadview.DayViewEventLoader;
 import com.google.code.yadview.DayViewScrollingController;
+import com.google.code.yadview.EventDelta;
+import com.google.code.yadview.EventDeltaListener;
 import com.google.code.yadview.EventRenderer;
 import com.google.code.yadview.EventResource;
 import com.google.code.yadview.util.CalendarDateUtils;
@@ -57,15 +61,53 @@ public class DefaultDayViewFactory implements ViewFactory, DayViewDependencyFact
     
     
     public DefaultDayViewFactory(Context context, ViewSwitcher vs, EventResource eventResource, String prefsName, DayViewResources defaultDayViewResources) {
+        this(context, vs, new DayViewEventLoader(eventResource), prefsName, defaultDayViewResources);
+    }
+
+
+    /**
+     * Builds the views on an existing loader, such as one kept across a
+     * configuration change, so they start from the events it already has.
+     */
+    public DefaultDayViewFactory(Context context, ViewSwitcher vs, DayViewEventLoader eventLoader, String prefsName, DayViewResources defaultDayViewResources) {
         mContext = context;
         mViewSwitcher = vs;
-        mEventResource = eventResource;
+        mEventResource = eventLoader.getEventResource();
         mPrefsName = prefsName;
         mResources = defaultDayViewResources;
         
-        mEventLoader = new DayViewEventLoader(mEventResource);
+        mEventLoader = eventLoader;
+        // The preferences only keep a weak reference to the listener
+        buildPreferencesUtils().getSharedPreferences(mContext)
+                .registerOnSharedPreferenceChangeListener(mFilterListener);
     }
 
+    // Drops everything loaded with the old filter when it changes, as the
+    // caches and in-flight loads are only keyed by the days they cover
+    private final OnSharedPreferenceChangeListener mFilterListener =
+            new OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            if (!DefaultEventResource.KEY_HIDE_DECLINED.equals(key)) {
+                return;
+            }
+            if (mEventResource instanceof CachingEventResource) {
+                ((CachingEventResource) mEventResource).invalidateAll();
+            }
+            for (int i = 0; i < mViewSwitcher.getChildCount(); i++) {
+                View child = mViewSwitcher.getChildAt(i);
+                if (child instanceof DayView) {
+                    ((DayView) child).clearCachedEvents();
+                }
+            }
+            mEventLoader.clearCachedEvents();
+            View current = mViewSwitcher.getCurrentView();
+            if (current instanceof DayView) {
+                ((DayView) current).reloadEvents();
+            }
+        }
+    };
+
 
     @Override
     public View makeView() {
@@ -91,6 +133,76 @@ public class DefaultDayViewFactory implements ViewFactory, DayViewDependencyFact
     public EventResource getEventResource() {
         return mEventResource;
     }
+
+    /**
+     * @return a listener for
+     *         {@link DefaultEventResource#startTrackingChanges(EventDeltaListener)}
+     *         that brings the loader, a {@link CachingEventResource} given to
+     *         this factory and the views up to date with each change
+     */
+    public EventDeltaListener getEventDeltaListener() {
+        return mEventDeltaListener;
+    }
+
+    /**
+     * Starts bringing the views up to date with changes to the calendar
+     * provider, if the events come from a {@link DefaultEventResource},
+     * directly or through a {@link CachingEventResource} or
+     * {@link SerializedEventResource}. Cached days that
+     * were not loaded lately are not watched, see
+     * {@link DefaultEventResource#startTrackingChanges(EventDeltaListener)}.
+     * Call from onResume().
+     */
+    public void startTrackingChanges() {
+        DefaultEventResource resource = getDefaultEventResource();
+        if (resource != null) {
+            resource.startTrackingChanges(mEventDeltaListener);
+        }
+    }
+
+    /**
+     * Undoes {@link #startTrackingChanges()}. Call from onPause().
+     */
+    public void stopTrackingChanges() {
+        DefaultEventResource resource = getDefaultEventResource();
+        if (resource != null) {
+            resource.stopTrackingChanges();
+        }
+    }
+
+    private DefaultEventResource getDefaultEventResource() {
+        EventResource resource = mEventResource;
+        if (resource instanceof SerializedEventResource) {
+            resource = ((SerializedEventResource) resource).getEventResource();
+        }
+        if (resource instanceof CachingEventResource) {
+            resource = ((CachingEventResource) resource).getEventResource();
+        }
+        return resource instanceof DefaultEventResource ? (DefaultEventResource) resource : null;
+    }
+
+    private final EventDeltaListener mEventDeltaListener = new EventDeltaListener() {
+        @Override
+        public void onEventDelta(final EventDelta delta) {
+            final int numDays = delta.getLastChangedDay() - delta.getFirstChangedDay() + 1;
+            if (mEventResource instanceof CachingEventResource) {
+                ((CachingEventResource) mEventResource).invalidate(delta.getFirstChangedDay(),
+                        numDays);
+            }
+            mEventLoader.invalidateEvents(delta.getFirstChangedDay(), numDays);
+            mViewSwitcher.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < mViewSwitcher.getChildCount(); i++) {
+                        View child = mViewSwitcher.getChildAt(i);
+                        if (child instanceof DayView) {
+                            ((DayView) child).applyEventDelta(delta);
+                        }
+                    }
+                }
+            });
+        }
+    };
     
     public ViewSwitcher getViewSwitcher() {
         return mViewSwitcher;
@@ -19,37 +19,63 @@ limitations under the License.
 
 package com.google.code.yadview.impl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.CancellationSignal;
 import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.provider.CalendarContract;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.Events;
 import android.provider.CalendarContract.Instances;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
+import android.text.format.Time;
 import android.util.Log;
+import android.util.SparseIntArray;
 
+import com.google.code.yadview.CancelablePredicate;
 import com.google.code.yadview.DayViewDependencyFactory;
 import com.google.code.yadview.Event;
+import com.google.code.yadview.EventDelta;
+import com.google.code.yadview.EventDeltaListener;
 import com.google.code.yadview.EventResource;
+import com.google.code.yadview.EventSink;
 import com.google.code.yadview.Predicate;
 import com.google.code.yadview.R;
+import com.google.code.yadview.util.EventRenderingUtils;
 import com.google.common.collect.Lists;
 
 public class DefaultEventResource implements EventResource {
 
     private static final boolean PROFILE = false;
 
+    // Number of events handed to an EventSink at a time
+    private static final int STREAM_BATCH_SIZE = 50;
+
     /**
      * The sort order is: 1) events with an earlier start (begin for normal
      * events, startday for allday) 2) events with a later end (end for normal
@@ -63,9 +89,21 @@ public class DefaultEventResource implements EventResource {
     private static final String SORT_ALLDAY_BY =
             "startDay ASC, endDay DESC, title ASC";
     private static final String DISPLAY_AS_ALLDAY = "dispAllday";
+    // Both kinds in one query: the all-day events first, in SORT_ALLDAY_BY
+    // order, then the others in SORT_EVENTS_BY order. "begin" and "end" are
+    // quoted as they are SQL keywords inside a CASE.
+    private static final String SORT_COMBINED_BY =
+            DISPLAY_AS_ALLDAY + " DESC, "
+            + "CASE WHEN " + DISPLAY_AS_ALLDAY + " THEN startDay ELSE \"begin\" END ASC, "
+            + "CASE WHEN " + DISPLAY_AS_ALLDAY + " THEN endDay ELSE \"end\" END DESC, "
+            + "title ASC";
 
     private static final String ALLDAY_WHERE = DISPLAY_AS_ALLDAY + "=1";
 
+    // Stands for "no focus" where a focus minute is expected, see
+    // get(int, int, int, int, EventSink, Predicate)
+    private static final int NO_FOCUS = -1;
+
     // The projection to use when querying instances to build a list of events
     public static final String[] EVENT_PROJECTION = new String[] {
             Instances.TITLE, // 0
@@ -90,8 +128,19 @@ public class DefaultEventResource implements EventResource {
             Events.GUESTS_CAN_MODIFY, // 18
             Instances.ALL_DAY + "=1 OR (" + Instances.END + "-" + Instances.BEGIN + ")>="
                     + DateUtils.DAY_IN_MILLIS + " AS " + DISPLAY_AS_ALLDAY, // 19
+            Instances.CALENDAR_ID, // 20
+            Instances.CALENDAR_ACCESS_LEVEL, // 21
+            Instances.OWNER_ACCOUNT, // 22
     };
 
+    // Just enough to tell which days have events
+    private static final String[] EVENT_DAYS_PROJECTION = new String[] {
+            Instances.START_DAY, // 0
+            Instances.END_DAY, // 1
+    };
+    private static final int EVENT_DAYS_START_DAY_INDEX = 0;
+    private static final int EVENT_DAYS_END_DAY_INDEX = 1;
+
     // The indices for the projection array above.
     private static final int PROJECTION_TITLE_INDEX = 0;
     private static final int PROJECTION_LOCATION_INDEX = 1;
@@ -112,14 +161,14 @@ public class DefaultEventResource implements EventResource {
     private static final int PROJECTION_ORGANIZER_INDEX = 17;
     private static final int PROJECTION_GUESTS_CAN_INVITE_OTHERS_INDEX = 18;
     private static final int PROJECTION_DISPLAY_AS_ALLDAY = 19;
+    private static final int PROJECTION_CALENDAR_ID_INDEX = 20;
+    private static final int PROJECTION_CALENDAR_ACCESS_LEVEL_INDEX = 21;
+    private static final int PROJECTION_OWNER_ACCOUNT_INDEX = 22;
 
     private static final String EVENTS_WHERE = DISPLAY_AS_ALLDAY + "=0";
 
     private static final String TAG = "CalEvent";
 
-    private static String mNoTitleString;
-    private static int mNoColorColor;
-
     private static final String[] CALENDARS_PROJECTION = new String[] {
             Calendars._ID, // 0
             Calendars.CALENDAR_ACCESS_LEVEL, // 1
@@ -140,18 +189,335 @@ public class DefaultEventResource implements EventResource {
         }
     }
 
-    private Context mContext;
+    private final Context mContext;
+
+    private final DayViewDependencyFactory mDependencyFactory;
+
+    private volatile boolean mSingleQuery = true;
+
+    // What getEventAccessLevel() needs to know, filled in as loads decode
+    // their rows
+    private final CalendarAccessCache mCalendarAccess;
+
+    private static final class CalendarAccess {
+        final int accessLevel;
+        final String ownerAccount;
+
+        CalendarAccess(int accessLevel, String ownerAccount) {
+            this.accessLevel = accessLevel;
+            this.ownerAccount = ownerAccount;
+        }
+    }
+
+    /**
+     * The access of the calendars met so far, and the calendars of the
+     * events that had to be looked up. Every load stores the calendars it
+     * meets again, so a change to a calendar is picked up by the next load.
+     * Until then the old values keep being used, so a lookup for a calendar
+     * seen before never waits for the provider.
+     */
+    private static final class CalendarAccessCache {
+        // All guarded by this
+        private final HashMap<Long, CalendarAccess> mCalendars =
+                new HashMap<Long, CalendarAccess>();
+        // Calendar ids by event id, for events loaded without one
+        private final HashMap<Long, Long> mEventCalendars = new HashMap<Long, Long>();
+        // Bumped when the calendars change so what was read before is not
+        // stored over what the next load reads
+        private int mEpoch;
+
+        synchronized CalendarAccess get(Event e) {
+            Long calendarId = e.getCalendarId() != 0 ? Long.valueOf(e.getCalendarId())
+                    : mEventCalendars.get(e.getId());
+            return calendarId == null ? null : mCalendars.get(calendarId);
+        }
+
+        synchronized int getEpoch() {
+            return mEpoch;
+        }
+
+        /**
+         * @param epoch what {@link #getEpoch()} said before access was read
+         */
+        synchronized void putCalendar(long calendarId, CalendarAccess access, int epoch) {
+            if (epoch == mEpoch) {
+                mCalendars.put(calendarId, access);
+            }
+        }
+
+        synchronized void putEvent(long eventId, long calendarId, CalendarAccess access,
+                int epoch) {
+            if (epoch == mEpoch) {
+                mEventCalendars.put(eventId, calendarId);
+                mCalendars.put(calendarId, access);
+            }
+        }
+
+        // Keeps the entries, but only loads that start from now on replace
+        // them
+        synchronized void calendarsChanged() {
+            mEpoch++;
+        }
+
+        synchronized void clear() {
+            mCalendars.clear();
+            mEventCalendars.clear();
+            mEpoch++;
+        }
+    }
+
+    // How long to wait for more change notifications before looking at what
+    // changed. The provider sends several for one edit or sync.
+    private static final long CHANGE_DELAY_MILLIS = 250;
+    // Days whose last load is remembered for working out deltas: the shown
+    // week and the ones prefetched on either side, with room to spare
+    private static final int MAX_WATCHED_DAYS = 42;
+    // Above this many changed events the watched days are loaded again as a
+    // whole rather than event by event
+    private static final int MAX_CHANGED_EVENTS = 64;
+
+    // The Events columns that decide how an event's instances look, and
+    // which event an exception belongs to. A row whose values change has
+    // changed for the view.
+    private static final String[] ROW_STATE_PROJECTION = new String[] {
+            Events._ID,
+            Events.ORIGINAL_ID,
+            Events.CALENDAR_ID,
+            Events.TITLE,
+            Events.EVENT_LOCATION,
+            Events.DTSTART,
+            Events.DTEND,
+            Events.DURATION,
+            Events.EVENT_TIMEZONE,
+            Events.ALL_DAY,
+            Events.RRULE,
+            Events.RDATE,
+            Events.EXRULE,
+            Events.EXDATE,
+            Events.LAST_DATE,
+            Events.DISPLAY_COLOR,
+            Events.VISIBLE,
+            Events.HAS_ALARM,
+            Events.GUESTS_CAN_MODIFY,
+            Events.ORGANIZER,
+            Events.SELF_ATTENDEE_STATUS,
+            Events.STATUS,
+            Events.DELETED,
+    };
+    private static final int ROW_STATE_ID_INDEX = 0;
+    private static final int ROW_STATE_ORIGINAL_ID_INDEX = 1;
+    private static final int ROW_STATE_DTSTART_INDEX = 5;
+    private static final int ROW_STATE_LAST_DATE_INDEX = 14;
+    private static final int ROW_STATE_COLOR_INDEX = 15;
+
+    static {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            ROW_STATE_PROJECTION[ROW_STATE_COLOR_INDEX] = Events.CALENDAR_COLOR;
+        }
+    }
+
+    // Change tracking, see startTrackingChanges(). All guarded by mWatched.
+    // The instances each day held at its last complete load, by Julian day.
+    // An instance is listed under every day it covers.
+    private final LinkedHashMap<Integer, List<Event>> mWatched =
+            new LinkedHashMap<Integer, List<Event>>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Event>> eldest) {
+            if (size() > MAX_WATCHED_DAYS) {
+                mDaysDropped = true;
+                return true;
+            }
+            return false;
+        }
+    };
+    // Set when a day stops being watched, until mRowStates is pruned
+    private boolean mDaysDropped;
+    // How each Events row over the watched days looked when last seen
+    private final HashMap<Long, RowState> mRowStates = new HashMap<Long, RowState>();
+    private EventDeltaListener mDeltaListener;
+    private HandlerThread mChangeThread;
+    private Handler mChangeHandler;
+    private ContentObserver mObserver;
+    private ContentObserver mCalendarsObserver;
+    private boolean mChangePending;
+
+    private static final class RowState {
+        final int fingerprint;
+        final long originalId;
+        // The Julian days the row's instances can fall on, give or take a day
+        final int firstDay;
+        final int lastDay;
+
+        RowState(int fingerprint, long originalId, int firstDay, int lastDay) {
+            this.fingerprint = fingerprint;
+            this.originalId = originalId;
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+        }
+
+        // Whether the row can have instances on any of the sorted days
+        boolean covers(int[] days) {
+            int i = Arrays.binarySearch(days, firstDay);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return i < days.length && days[i] <= lastDay;
+        }
+    }
 
-    private DayViewDependencyFactory mDependencyFactory;
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshWatchedDays();
+        }
+    };
 
     public DefaultEventResource(Context ctx, DayViewDependencyFactory dependencyFactory) {
         mContext = ctx;
         mDependencyFactory = dependencyFactory;
+        mCalendarAccess = new CalendarAccessCache();
+    }
+
+    /**
+     * Chooses whether {@link #get(int, int, EventSink, Predicate)} fetches the
+     * all-day and the other events with one Instances query (the default) or
+     * with one query for each. Either way the events come out in the same
+     * order, but every query costs a round trip to the provider and an
+     * expansion of the recurring events in the range.
+     */
+    public void setSingleQuery(boolean singleQuery) {
+        mSingleQuery = singleQuery;
     }
 
     @Override
     public List<Event> get(int startJulianDay, int numDays, Predicate continueLoading) {
-        List<Event> events = Lists.newArrayList();
+        final List<Event> events = Lists.newArrayList();
+        get(startJulianDay, numDays, new EventSink() {
+            @Override
+            public void onEvents(List<Event> batch) {
+                events.addAll(batch);
+            }
+        }, continueLoading);
+        return events;
+    }
+
+    /**
+     * Starts watching the calendar provider. From now on the events of the
+     * last few weeks of days loaded are remembered. When the provider
+     * reports a change, a query of the Events table over those days finds
+     * the events that changed, and only their instances are queried again.
+     * The difference for each run of consecutive watched days is handed to
+     * the listener on a background thread.
+     */
+    public void startTrackingChanges(EventDeltaListener listener) {
+        final ContentObserver observer;
+        final ContentObserver calendarsObserver;
+        synchronized (mWatched) {
+            mDeltaListener = listener;
+            if (mObserver != null) {
+                return;
+            }
+            mChangeThread = new HandlerThread("DefaultEventResource-changes",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            mChangeThread.start();
+            mChangeHandler = new Handler(mChangeThread.getLooper());
+            // The provider only ever names CalendarContract.CONTENT_URI, so
+            // the notification itself says nothing about what changed
+            observer = new ContentObserver(mChangeHandler) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    onProviderChange();
+                }
+            };
+            calendarsObserver = new ContentObserver(mChangeHandler) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    mCalendarAccess.calendarsChanged();
+                }
+            };
+            mObserver = observer;
+            mCalendarsObserver = calendarsObserver;
+        }
+        ContentResolver cr = mContext.getContentResolver();
+        cr.registerContentObserver(CalendarContract.CONTENT_URI, true, observer);
+        cr.registerContentObserver(Calendars.CONTENT_URI, true, calendarsObserver);
+    }
+
+    /**
+     * Stops watching the calendar provider and forgets the remembered loads.
+     */
+    public void stopTrackingChanges() {
+        final ContentObserver observer;
+        final ContentObserver calendarsObserver;
+        final HandlerThread thread;
+        synchronized (mWatched) {
+            observer = mObserver;
+            calendarsObserver = mCalendarsObserver;
+            thread = mChangeThread;
+            mObserver = null;
+            mCalendarsObserver = null;
+            mChangeThread = null;
+            mChangeHandler = null;
+            mDeltaListener = null;
+            mChangePending = false;
+            mWatched.clear();
+            mRowStates.clear();
+            mDaysDropped = false;
+        }
+        if (observer != null) {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            mContext.getContentResolver().unregisterContentObserver(calendarsObserver);
+            thread.quit();
+        }
+    }
+
+    @Override
+    public void get(int startJulianDay, int numDays, EventSink sink, Predicate continueLoading) {
+        get(startJulianDay, numDays, NO_FOCUS, NO_FOCUS, sink, continueLoading);
+    }
+
+    /**
+     * Sorts the instances that can show in the focus hours first, with the
+     * same query. The all-day events and those that cross midnight count as
+     * showing. A batch never mixes the two parts.
+     */
+    @Override
+    public void get(int startJulianDay, int numDays, int focusStartMinute, int focusEndMinute,
+            final EventSink sink, Predicate continueLoading) {
+        final boolean tracking;
+        synchronized (mWatched) {
+            tracking = mObserver != null;
+        }
+        if (!tracking) {
+            queryEvents(startJulianDay, numDays, focusStartMinute, focusEndMinute, sink,
+                    continueLoading);
+            return;
+        }
+
+        // Remember what the range holds to compare with after a change. The
+        // Events rows of days not watched yet are seen first, so a change
+        // that lands between the two queries is still found.
+        recordRowStates(unwatchedDays(startJulianDay, numDays));
+        final ArrayList<Event> loaded = new ArrayList<Event>();
+        queryEvents(startJulianDay, numDays, focusStartMinute, focusEndMinute, new EventSink() {
+            @Override
+            public void onEvents(List<Event> batch) {
+                loaded.addAll(batch);
+                sink.onEvents(batch);
+            }
+        }, continueLoading);
+        if (continueLoading.value()) {
+            synchronized (mWatched) {
+                if (mObserver != null) {
+                    putWatchedDays(startJulianDay, numDays, loaded, null);
+                    pruneRowStates();
+                }
+            }
+        }
+    }
+
+    private void queryEvents(int startJulianDay, int numDays, int focusStartMinute,
+            int focusEndMinute, EventSink sink, Predicate continueLoading) {
         if (PROFILE) {
             Debug.startMethodTracing("loadEvents");
         }
@@ -175,6 +541,26 @@ public class DefaultEventResource implements EventResource {
             // Respect the preference to show/hide declined events
             SharedPreferences prefs = mDependencyFactory.buildPreferencesUtils().getSharedPreferences(mContext);
             boolean hideDeclined = prefs.getBoolean(KEY_HIDE_DECLINED, false);
+            EventRowDecoder decoder = newRowDecoder(mContext);
+            final String focusSort = focusStartMinute == NO_FOCUS ? ""
+                    : focusSortClause(focusStartMinute, focusEndMinute);
+
+            if (mSingleQuery) {
+                String where = null;
+                if (hideDeclined) {
+                    where = Instances.SELF_ATTENDEE_STATUS + "!="
+                            + Attendees.ATTENDEE_STATUS_DECLINED;
+                }
+                cEvents = instancesQuery(mContext.getContentResolver(), EVENT_PROJECTION,
+                        startJulianDay, endDay, where, null, focusSort + SORT_COMBINED_BY,
+                        continueLoading);
+                if (!continueLoading.value()) {
+                    return;
+                }
+                streamEventsFromCursor(sink, cEvents, decoder, startJulianDay, endDay,
+                        focusStartMinute, focusEndMinute, continueLoading);
+                return;
+            }
 
             String where = EVENTS_WHERE;
             String whereAllday = ALLDAY_WHERE;
@@ -185,23 +571,30 @@ public class DefaultEventResource implements EventResource {
                 whereAllday += hideString;
             }
 
-            cEvents = instancesQuery(mContext.getContentResolver(), EVENT_PROJECTION,
-                    startJulianDay,
-                    endDay, where, null, SORT_EVENTS_BY);
+            // The all-day events come first: there are usually few of them
+            // and they decide the height of the all-day area.
             cAllday = instancesQuery(mContext.getContentResolver(), EVENT_PROJECTION,
                     startJulianDay,
-                    endDay, whereAllday, null, SORT_ALLDAY_BY);
+                    endDay, whereAllday, null, SORT_ALLDAY_BY, continueLoading);
+            if (!continueLoading.value()) {
+                return;
+            }
+            streamEventsFromCursor(sink, cAllday, decoder, startJulianDay, endDay, NO_FOCUS,
+                    NO_FOCUS, continueLoading);
 
             // Check if we should return early because there are more recent
             // load requests waiting.
             if (!continueLoading.value()) {
-                return events;
+                return;
             }
-
-            buildEventsFromCursor(events, cEvents, mContext, startJulianDay, endDay);
-            buildEventsFromCursor(events, cAllday, mContext, startJulianDay, endDay);
-
-            return events;
+            cEvents = instancesQuery(mContext.getContentResolver(), EVENT_PROJECTION,
+                    startJulianDay,
+                    endDay, where, null, focusSort + SORT_EVENTS_BY, continueLoading);
+            if (!continueLoading.value()) {
+                return;
+            }
+            streamEventsFromCursor(sink, cEvents, decoder, startJulianDay, endDay,
+                    focusStartMinute, focusEndMinute, continueLoading);
 
         } finally {
             if (cEvents != null) {
@@ -216,55 +609,443 @@ public class DefaultEventResource implements EventResource {
         }
     }
 
-    /**
-     * @param cEvents Cursor pointing at event
-     * @return An event created from the cursor
-     */
-    private Event generateEventFromCursor(Cursor cEvents) {
-        Event e = new Event();
+    // Orders the instances that can show between the two minutes of a day
+    // before the others. Matches the test in streamEventsFromCursor().
+    private static String focusSortClause(int focusStartMinute, int focusEndMinute) {
+        return "CASE WHEN " + DISPLAY_AS_ALLDAY + " OR " + Instances.START_DAY + "!="
+                + Instances.END_DAY + " OR (" + Instances.START_MINUTE + "<=" + focusEndMinute
+                + " AND " + Instances.END_MINUTE + ">=" + focusStartMinute
+                + ") THEN 0 ELSE 1 END ASC, ";
+    }
 
-        e.setId(cEvents.getLong(PROJECTION_EVENT_ID_INDEX));
-        e.setTitle(cEvents.getString(PROJECTION_TITLE_INDEX));
-        e.setLocation(cEvents.getString(PROJECTION_LOCATION_INDEX));
-        e.setAllDay(cEvents.getInt(PROJECTION_ALL_DAY_INDEX) != 0);
-        e.setOrganizer(cEvents.getString(PROJECTION_ORGANIZER_INDEX));
-        e.setGuestsCanModify(cEvents.getInt(PROJECTION_GUESTS_CAN_INVITE_OTHERS_INDEX) != 0);
+    // Called on the change thread for every notification from the provider
+    private void onProviderChange() {
+        synchronized (mWatched) {
+            if (mChangeHandler == null || mChangePending) {
+                return;
+            }
+            mChangePending = true;
+            mChangeHandler.postDelayed(mRefreshRunnable, CHANGE_DELAY_MILLIS);
+        }
+    }
 
-        if (e.getTitle() == null || e.getTitle().length() == 0) {
-            e.setTitle(mNoTitleString);
+    // Finds the events that changed over the watched days and compares each
+    // run of watched days with what it holds now
+    private void refreshWatchedDays() {
+        final int[] days;
+        final EventDeltaListener listener;
+        synchronized (mWatched) {
+            if (!mChangePending) {
+                return;
+            }
+            mChangePending = false;
+            days = sortedDays(mWatched.keySet());
+            listener = mDeltaListener;
+        }
+        if (days.length == 0) {
+            return;
         }
 
-        if (!cEvents.isNull(PROJECTION_COLOR_INDEX)) {
-            // Read the color from the database
-            e.setColor(mDependencyFactory.buildRenderingUtils().getDisplayColorFromColor(cEvents.getInt(PROJECTION_COLOR_INDEX)));
-        } else {
-            e.setColor(mNoColorColor);
+        // The events whose rows are new, gone or different. An exception
+        // also changes the instances of the event it belongs to.
+        final HashMap<Long, RowState> current = queryRowStates(days[0],
+                days[days.length - 1]);
+        final HashSet<Long> changedIds = new HashSet<Long>();
+        synchronized (mWatched) {
+            if (mDeltaListener != listener) {
+                return;
+            }
+            for (Map.Entry<Long, RowState> row : current.entrySet()) {
+                // The query also finds rows that only fall in the gaps
+                // between runs of watched days
+                if (!row.getValue().covers(days)) {
+                    continue;
+                }
+                RowState seen = mRowStates.put(row.getKey(), row.getValue());
+                if (seen == null || seen.fingerprint != row.getValue().fingerprint) {
+                    addChangedRow(changedIds, row.getKey(), row.getValue());
+                    addChangedRow(changedIds, row.getKey(), seen);
+                }
+            }
+            Iterator<Map.Entry<Long, RowState>> it = mRowStates.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, RowState> row = it.next();
+                RowState now = current.get(row.getKey());
+                if (now == null || !now.covers(days)) {
+                    addChangedRow(changedIds, row.getKey(), row.getValue());
+                    it.remove();
+                }
+            }
+        }
+        if (changedIds.isEmpty()) {
+            return;
         }
+        final Set<Long> onlyIds = changedIds.size() > MAX_CHANGED_EVENTS ? null : changedIds;
 
-        long eStart = cEvents.getLong(PROJECTION_BEGIN_INDEX);
-        long eEnd = cEvents.getLong(PROJECTION_END_INDEX);
+        int runStart = 0;
+        for (int i = 1; i <= days.length; i++) {
+            if (i < days.length && days[i] == days[i - 1] + 1) {
+                continue;
+            }
+            final int startDay = days[runStart];
+            final int numDays = days[i - 1] - startDay + 1;
+            runStart = i;
 
-        e.setStartMillis(eStart);
-        e.setStartTime(cEvents.getInt(PROJECTION_START_MINUTE_INDEX));
-        e.setStartDay(cEvents.getInt(PROJECTION_START_DAY_INDEX));
+            final List<Event> before;
+            synchronized (mWatched) {
+                before = watchedInstances(startDay, numDays, onlyIds);
+            }
+            final List<Event> after = onlyIds == null ? get(startDay, numDays, Predicate.TRUE)
+                    : queryEventInstances(onlyIds, startDay, numDays);
 
-        e.setEndMillis(eEnd);
-        e.setEndTime(cEvents.getInt(PROJECTION_END_MINUTE_INDEX));
-        e.setEndDay(cEvents.getInt(PROJECTION_END_DAY_INDEX));
+            EventDelta delta = EventDelta.compute(before, after, startDay, numDays);
+            if (delta.isEmpty()) {
+                continue;
+            }
+            synchronized (mWatched) {
+                if (mDeltaListener != listener) {
+                    return;
+                }
+                putWatchedDays(startDay, numDays, after, onlyIds);
+            }
+            listener.onEventDelta(delta);
+        }
+    }
 
-        e.setHasAlarm(cEvents.getInt(PROJECTION_HAS_ALARM_INDEX) != 0);
+    private static void addChangedRow(Set<Long> changedIds, long id, RowState row) {
+        changedIds.add(id);
+        if (row != null && row.originalId != 0) {
+            changedIds.add(row.originalId);
+        }
+    }
 
-        // Check if this is a repeating event
-        String rrule = cEvents.getString(PROJECTION_RRULE_INDEX);
-        String rdate = cEvents.getString(PROJECTION_RDATE_INDEX);
-        if (!TextUtils.isEmpty(rrule) || !TextUtils.isEmpty(rdate)) {
-            e.setRepeating(true);
-        } else {
-            e.setRepeating(false);
+    // The instances of some events over a range of days
+    private List<Event> queryEventInstances(Set<Long> ids, int startJulianDay, int numDays) {
+        final ArrayList<Event> events = new ArrayList<Event>();
+        final int endDay = startJulianDay + numDays - 1;
+        String where = Instances.EVENT_ID + " IN (" + TextUtils.join(",", ids) + ")";
+        SharedPreferences prefs = mDependencyFactory.buildPreferencesUtils().getSharedPreferences(mContext);
+        if (prefs.getBoolean(KEY_HIDE_DECLINED, false)) {
+            where += " AND " + Instances.SELF_ATTENDEE_STATUS + "!="
+                    + Attendees.ATTENDEE_STATUS_DECLINED;
+        }
+        Cursor cEvents = instancesQuery(mContext.getContentResolver(), EVENT_PROJECTION,
+                startJulianDay, endDay, where, null, SORT_COMBINED_BY, Predicate.TRUE);
+        if (cEvents == null) {
+            return events;
+        }
+        try {
+            buildEventsFromCursor(events, cEvents, mContext, startJulianDay, endDay);
+        } finally {
+            cEvents.close();
+        }
+        return events;
+    }
+
+    // The Events rows that can have instances between two days, by event
+    // id. This is one pass over the Events table, without expanding any
+    // recurrence.
+    private HashMap<Long, RowState> queryRowStates(int startJulianDay, int endJulianDay) {
+        final HashMap<Long, RowState> rows = new HashMap<Long, RowState>();
+        // All-day events are stored in UTC, so allow a day either side
+        Time time = new Time();
+        final long startMillis = time.setJulianDay(startJulianDay) - DateUtils.DAY_IN_MILLIS;
+        final long endMillis = time.setJulianDay(endJulianDay + 1) + DateUtils.DAY_IN_MILLIS;
+        final long gmtoff = time.gmtoff;
+        Cursor cRows = mContext.getContentResolver().query(Events.CONTENT_URI,
+                ROW_STATE_PROJECTION,
+                Events.DTSTART + "<? AND (" + Events.LAST_DATE + " IS NULL OR "
+                        + Events.LAST_DATE + ">=?)", new String[] {
+                        Long.toString(endMillis), Long.toString(startMillis)
+                }, null);
+        if (cRows == null) {
+            return rows;
+        }
+        try {
+            final int numColumns = ROW_STATE_PROJECTION.length;
+            while (cRows.moveToNext()) {
+                int fingerprint = 1;
+                for (int i = 0; i < numColumns; i++) {
+                    String value = cRows.getString(i);
+                    fingerprint = 31 * fingerprint + (value == null ? 0 : value.hashCode());
+                }
+                final int firstDay = Time.getJulianDay(cRows.getLong(ROW_STATE_DTSTART_INDEX),
+                        gmtoff) - 1;
+                final int lastDay = cRows.isNull(ROW_STATE_LAST_DATE_INDEX) ? Integer.MAX_VALUE
+                        : Time.getJulianDay(cRows.getLong(ROW_STATE_LAST_DATE_INDEX), gmtoff) + 1;
+                rows.put(cRows.getLong(ROW_STATE_ID_INDEX), new RowState(fingerprint,
+                        cRows.getLong(ROW_STATE_ORIGINAL_ID_INDEX), firstDay, lastDay));
+            }
+        } finally {
+            cRows.close();
+        }
+        return rows;
+    }
+
+    // Notes how the Events rows over some days look, for the rows not seen
+    // before. Rows already seen keep their state until a change is looked
+    // at, so a change waiting to be looked at is not lost.
+    private void recordRowStates(int[] range) {
+        if (range == null) {
+            return;
+        }
+        HashMap<Long, RowState> rows = queryRowStates(range[0], range[1]);
+        synchronized (mWatched) {
+            if (mObserver == null) {
+                return;
+            }
+            for (Map.Entry<Long, RowState> row : rows.entrySet()) {
+                if (!mRowStates.containsKey(row.getKey())) {
+                    mRowStates.put(row.getKey(), row.getValue());
+                }
+            }
+        }
+    }
+
+    // Forgets the rows that no watched day can show any more, once days
+    // have dropped out. Call with mWatched held.
+    private void pruneRowStates() {
+        if (!mDaysDropped) {
+            return;
+        }
+        mDaysDropped = false;
+        final int[] days = sortedDays(mWatched.keySet());
+        Iterator<RowState> it = mRowStates.values().iterator();
+        while (it.hasNext()) {
+            if (!it.next().covers(days)) {
+                it.remove();
+            }
+        }
+    }
+
+    // The first and last of the days of a range that are not watched, or
+    // null if all of them are
+    private int[] unwatchedDays(int startJulianDay, int numDays) {
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        synchronized (mWatched) {
+            for (int day = startJulianDay; day < startJulianDay + numDays; day++) {
+                if (!mWatched.containsKey(day)) {
+                    first = Math.min(first, day);
+                    last = day;
+                }
+            }
+        }
+        return first > last ? null : new int[] {
+                first, last
+        };
+    }
+
+    // Replaces the instances of some events, or all of them if ids is null,
+    // on the watched days of a range. Days not watched yet are watched from
+    // now on if all events are replaced. Call with mWatched held.
+    private void putWatchedDays(int startJulianDay, int numDays, List<Event> events,
+            Set<Long> ids) {
+        for (int day = startJulianDay; day < startJulianDay + numDays; day++) {
+            List<Event> dayEvents = mWatched.get(day);
+            if (dayEvents == null && ids != null) {
+                continue;
+            }
+            final ArrayList<Event> updated = new ArrayList<Event>();
+            if (ids != null) {
+                for (Event event : dayEvents) {
+                    if (!ids.contains(event.getId())) {
+                        updated.add(event);
+                    }
+                }
+            }
+            for (Event event : events) {
+                if (event.getStartDay() <= day && event.getEndDay() >= day) {
+                    updated.add(event);
+                }
+            }
+            mWatched.put(day, updated);
+        }
+    }
+
+    // The instances of some events, or all of them if ids is null, over the
+    // watched days of a range, each once. Call with mWatched held.
+    private List<Event> watchedInstances(int startJulianDay, int numDays, Set<Long> ids) {
+        final TreeSet<Event> instances = new TreeSet<Event>(EventDelta.INSTANCE_ORDER);
+        for (int day = startJulianDay; day < startJulianDay + numDays; day++) {
+            List<Event> dayEvents = mWatched.get(day);
+            if (dayEvents == null) {
+                continue;
+            }
+            for (Event event : dayEvents) {
+                if (ids == null || ids.contains(event.getId())) {
+                    instances.add(event);
+                }
+            }
+        }
+        return new ArrayList<Event>(instances);
+    }
+
+    private static int[] sortedDays(Set<Integer> keys) {
+        final int[] days = new int[keys.size()];
+        int i = 0;
+        for (Integer day : keys) {
+            days[i++] = day;
+        }
+        Arrays.sort(days);
+        return days;
+    }
+
+    @Override
+    public void getEventDays(int startJulianDay, int numDays, boolean[] eventDays,
+            Predicate continueLoading) {
+        Arrays.fill(eventDays, 0, numDays, false);
+        Cursor cDays = null;
+        try {
+            int endDay = startJulianDay + numDays - 1;
+
+            // Respect the preference to show/hide declined events
+            SharedPreferences prefs = mDependencyFactory.buildPreferencesUtils().getSharedPreferences(mContext);
+            String where = null;
+            if (prefs.getBoolean(KEY_HIDE_DECLINED, false)) {
+                where = Instances.SELF_ATTENDEE_STATUS + "!=" + Attendees.ATTENDEE_STATUS_DECLINED;
+            }
+
+            // Only the start and end day of each instance, in one query for
+            // the whole range
+            cDays = instancesQuery(mContext.getContentResolver(), EVENT_DAYS_PROJECTION,
+                    startJulianDay, endDay, where, null, null, continueLoading);
+            if (cDays == null) {
+                return;
+            }
+
+            while (cDays.moveToNext()) {
+                if (!continueLoading.value()) {
+                    return;
+                }
+                int first = Math.max(cDays.getInt(EVENT_DAYS_START_DAY_INDEX), startJulianDay);
+                int last = Math.min(cDays.getInt(EVENT_DAYS_END_DAY_INDEX), endDay);
+                for (int day = first; day <= last; day++) {
+                    eventDays[day - startJulianDay] = true;
+                }
+            }
+        } finally {
+            if (cDays != null) {
+                cDays.close();
+            }
+        }
+    }
+
+    private EventRowDecoder newRowDecoder(Context context) {
+        return new EventRowDecoder(context.getResources(),
+                mDependencyFactory.buildRenderingUtils(), mCalendarAccess);
+    }
+
+    /**
+     * Turns rows of {@link #EVENT_PROJECTION} into events. Everything it
+     * depends on is looked up once when it is made, so make one per load.
+     * Calendars have only a few distinct colours, so their display colours
+     * are remembered instead of being recomputed for every row. The access
+     * level and owner of each calendar met are stored once per load.
+     */
+    private static final class EventRowDecoder {
+        private final String mNoTitleString;
+        private final int mNoColorColor;
+        private final EventRenderingUtils mRenderingUtils;
+        // Stored colour to display colour
+        private final SparseIntArray mDisplayColors = new SparseIntArray();
+        private final CalendarAccessCache mCalendarAccess;
+        private final int mCalendarAccessEpoch;
+        // The calendars whose access was stored by this decoder
+        private long[] mSeenCalendars = new long[8];
+        private int mNumSeenCalendars;
+
+        EventRowDecoder(Resources res, EventRenderingUtils renderingUtils,
+                CalendarAccessCache calendarAccess) {
+            mNoTitleString = res.getString(R.string.no_title_label);
+            mNoColorColor = res.getColor(R.color.event_center);
+            mRenderingUtils = renderingUtils;
+            mCalendarAccess = calendarAccess;
+            mCalendarAccessEpoch = calendarAccess.getEpoch();
+        }
+
+        /**
+         * @param cEvents Cursor pointing at event
+         * @return An event created from the cursor
+         */
+        Event decode(Cursor cEvents) {
+            Event e = new Event();
+
+            e.setId(cEvents.getLong(PROJECTION_EVENT_ID_INDEX));
+            e.setTitle(cEvents.getString(PROJECTION_TITLE_INDEX));
+            e.setLocation(cEvents.getString(PROJECTION_LOCATION_INDEX));
+            e.setAllDay(cEvents.getInt(PROJECTION_ALL_DAY_INDEX) != 0);
+            e.setOrganizer(cEvents.getString(PROJECTION_ORGANIZER_INDEX));
+            e.setGuestsCanModify(cEvents.getInt(PROJECTION_GUESTS_CAN_INVITE_OTHERS_INDEX) != 0);
+
+            if (e.getTitle() == null || e.getTitle().length() == 0) {
+                e.setTitle(mNoTitleString);
+            }
+
+            if (!cEvents.isNull(PROJECTION_COLOR_INDEX)) {
+                // Read the color from the database
+                e.setColor(getDisplayColor(cEvents.getInt(PROJECTION_COLOR_INDEX)));
+            } else {
+                e.setColor(mNoColorColor);
+            }
+
+            long eStart = cEvents.getLong(PROJECTION_BEGIN_INDEX);
+            long eEnd = cEvents.getLong(PROJECTION_END_INDEX);
+
+            e.setStartMillis(eStart);
+            e.setStartTime(cEvents.getInt(PROJECTION_START_MINUTE_INDEX));
+            e.setStartDay(cEvents.getInt(PROJECTION_START_DAY_INDEX));
+
+            e.setEndMillis(eEnd);
+            e.setEndTime(cEvents.getInt(PROJECTION_END_MINUTE_INDEX));
+            e.setEndDay(cEvents.getInt(PROJECTION_END_DAY_INDEX));
+
+            e.setHasAlarm(cEvents.getInt(PROJECTION_HAS_ALARM_INDEX) != 0);
+
+            // Check if this is a repeating event
+            String rrule = cEvents.getString(PROJECTION_RRULE_INDEX);
+            String rdate = cEvents.getString(PROJECTION_RDATE_INDEX);
+            if (!TextUtils.isEmpty(rrule) || !TextUtils.isEmpty(rdate)) {
+                e.setRepeating(true);
+            } else {
+                e.setRepeating(false);
+            }
+
+            e.setSelfAttendeeStatus(cEvents.getInt(PROJECTION_SELF_ATTENDEE_STATUS_INDEX));
+
+            final long calendarId = cEvents.getLong(PROJECTION_CALENDAR_ID_INDEX);
+            e.setCalendarId(calendarId);
+            storeCalendarAccess(cEvents, calendarId);
+            return e;
+        }
+
+        private void storeCalendarAccess(Cursor cEvents, long calendarId) {
+            // There are only a few calendars, a scan is enough
+            for (int i = 0; i < mNumSeenCalendars; i++) {
+                if (mSeenCalendars[i] == calendarId) {
+                    return;
+                }
+            }
+            if (mNumSeenCalendars == mSeenCalendars.length) {
+                mSeenCalendars = Arrays.copyOf(mSeenCalendars, mNumSeenCalendars * 2);
+            }
+            mSeenCalendars[mNumSeenCalendars++] = calendarId;
+
+            CalendarAccess access = new CalendarAccess(
+                    cEvents.getInt(PROJECTION_CALENDAR_ACCESS_LEVEL_INDEX),
+                    cEvents.getString(PROJECTION_OWNER_ACCOUNT_INDEX));
+            mCalendarAccess.putCalendar(calendarId, access, mCalendarAccessEpoch);
         }
 
-        e.setSelfAttendeeStatus(cEvents.getInt(PROJECTION_SELF_ATTENDEE_STATUS_INDEX));
-        return e;
+        private int getDisplayColor(int color) {
+            int index = mDisplayColors.indexOfKey(color);
+            if (index >= 0) {
+                return mDisplayColors.valueAt(index);
+            }
+            int displayColor = mRenderingUtils.getDisplayColorFromColor(color);
+            mDisplayColors.put(color, displayColor);
+            return displayColor;
+        }
     }
 
     /**
@@ -282,10 +1063,14 @@ public class DefaultEventResource implements EventResource {
      * @param selection Filter on the query as an SQL WHERE statement
      * @param selectionArgs Args to replace any '?'s in the selection
      * @param orderBy How to order the rows as an SQL ORDER BY statement
-     * @return A Cursor of instances matching the selection
+     * @param continueLoading On API 16 and up, a {@link CancelablePredicate}
+     *            aborts the query as soon as it is cancelled
+     * @return A Cursor of instances matching the selection, or null if the
+     *         query was cancelled
      */
     private static final Cursor instancesQuery(ContentResolver cr, String[] projection,
-            int startDay, int endDay, String selection, String[] selectionArgs, String orderBy) {
+            int startDay, int endDay, String selection, String[] selectionArgs, String orderBy,
+            Predicate continueLoading) {
         String WHERE_CALENDARS_SELECTED = Calendars.VISIBLE + "=?";
         String[] WHERE_CALENDARS_ARGS = {
             "1"
@@ -307,8 +1092,41 @@ public class DefaultEventResource implements EventResource {
                 selectionArgs = WHERE_CALENDARS_ARGS;
             }
         }
-        return cr.query(builder.build(), projection, selection, selectionArgs,
-                orderBy == null ? DEFAULT_SORT_ORDER : orderBy);
+        if (orderBy == null) {
+            orderBy = DEFAULT_SORT_ORDER;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                && continueLoading instanceof CancelablePredicate) {
+            return CancelableQuery.query(cr, builder.build(), projection, selection,
+                    selectionArgs, orderBy, (CancelablePredicate) continueLoading);
+        }
+        return cr.query(builder.build(), projection, selection, selectionArgs, orderBy);
+    }
+
+    /**
+     * Runs a query that a {@link CancelablePredicate} can abort part way
+     * through. Kept in its own class so CancellationSignal is only loaded on
+     * API 16 and up.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class CancelableQuery {
+        static Cursor query(ContentResolver cr, Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String orderBy, CancelablePredicate continueLoading) {
+            final CancellationSignal signal = new CancellationSignal();
+            continueLoading.setOnCancelListener(new Runnable() {
+                @Override
+                public void run() {
+                    signal.cancel();
+                }
+            });
+            try {
+                return cr.query(uri, projection, selection, selectionArgs, orderBy, signal);
+            } catch (OperationCanceledException e) {
+                return null;
+            } finally {
+                continueLoading.setOnCancelListener(null);
+            }
+        }
     }
 
     /**
@@ -333,14 +1151,12 @@ public class DefaultEventResource implements EventResource {
             return;
         }
 
-        Resources res = context.getResources();
-        mNoTitleString = res.getString(R.string.no_title_label);
-        mNoColorColor = res.getColor(R.color.event_center);
+        EventRowDecoder decoder = newRowDecoder(context);
         // Sort events in two passes so we ensure the allday and standard events
         // get sorted in the correct order
         cEvents.moveToPosition(-1);
         while (cEvents.moveToNext()) {
-            Event e = generateEventFromCursor(cEvents);
+            Event e = decoder.decode(cEvents);
             if (e.getStartDay() > endDay || e.getEndDay() < startDay) {
                 continue;
             }
@@ -348,60 +1164,146 @@ public class DefaultEventResource implements EventResource {
         }
     }
 
+    /**
+     * Like {@link #buildEventsFromCursor}, but hands the events to the sink
+     * {@link #STREAM_BATCH_SIZE} at a time. A batch never mixes all-day and
+     * other events, so the all-day ones of a combined query are handed over
+     * as soon as the cursor moves past them. Likewise with a focus, the
+     * events in it are handed over as soon as the cursor moves past them.
+     */
+    private static void streamEventsFromCursor(EventSink sink, Cursor cEvents,
+            EventRowDecoder decoder, int startDay, int endDay, int focusStartMinute,
+            int focusEndMinute, Predicate continueLoading) {
+        if (cEvents == null || cEvents.getCount() == 0) {
+            return;
+        }
+
+        List<Event> batch = Lists.newArrayListWithCapacity(STREAM_BATCH_SIZE);
+        boolean batchAllday = false;
+        boolean batchInFocus = true;
+        cEvents.moveToPosition(-1);
+        while (cEvents.moveToNext()) {
+            // A superseded load stops within a row
+            if (!continueLoading.value()) {
+                return;
+            }
+            Event e = decoder.decode(cEvents);
+            if (e.getStartDay() > endDay || e.getEndDay() < startDay) {
+                continue;
+            }
+            boolean allday = cEvents.getInt(PROJECTION_DISPLAY_AS_ALLDAY) != 0;
+            boolean inFocus = focusStartMinute == NO_FOCUS || allday
+                    || e.getStartDay() != e.getEndDay()
+                    || (e.getStartTime() <= focusEndMinute && e.getEndTime() >= focusStartMinute);
+            if ((allday != batchAllday || inFocus != batchInFocus) && !batch.isEmpty()) {
+                sink.onEvents(batch);
+                batch = Lists.newArrayListWithCapacity(STREAM_BATCH_SIZE);
+            }
+            batchAllday = allday;
+            batchInFocus = inFocus;
+            batch.add(e);
+            if (batch.size() == STREAM_BATCH_SIZE) {
+                sink.onEvents(batch);
+                batch = Lists.newArrayListWithCapacity(STREAM_BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) {
+            sink.onEvents(batch);
+        }
+    }
+
+    /**
+     * Answers from the calendars met by earlier loads, so for an event this
+     * resource loaded it does not query the provider, even after the
+     * calendars change; the next load brings the answer up to date. An event
+     * whose calendar no load has met yet still blocks on a query the first
+     * time, and on two if the event has no calendar id, so avoid calling
+     * this on the UI thread for events this resource did not load.
+     */
     @Override
     public int getEventAccessLevel(Event e) {
-        ContentResolver cr = mContext.getContentResolver();
-
-        int accessLevel = Calendars.CAL_ACCESS_NONE;
+        CalendarAccess access = mCalendarAccess.get(e);
+        if (access == null) {
+            access = queryCalendarAccess(e);
+        }
+        if (access == null || access.accessLevel < Calendars.CAL_ACCESS_CONTRIBUTOR) {
+            return ACCESS_LEVEL_NONE;
+        }
 
-        // Get the calendar id for this event
-        Cursor cursor = cr.query(ContentUris.withAppendedId(Events.CONTENT_URI, e.getId()),
-                new String[] {
-                    Events.CALENDAR_ID
-                },
-                null /* selection */,
-                null /* selectionArgs */,
-                null /* sort */);
+        if (e.isGuestsCanModify()) {
+            return ACCESS_LEVEL_EDIT;
+        }
 
-        if (cursor == null) {
-            return ACCESS_LEVEL_NONE;
+        if (!TextUtils.isEmpty(access.ownerAccount)
+                && access.ownerAccount.equalsIgnoreCase(e.getOrganizer())) {
+            return ACCESS_LEVEL_EDIT;
         }
 
-        if (cursor.getCount() == 0) {
+        return ACCESS_LEVEL_DELETE;
+    }
+
+    // Looks up the calendar of the event and stores its access, or returns
+    // null if the event is not there
+    private CalendarAccess queryCalendarAccess(Event e) {
+        final int epoch = mCalendarAccess.getEpoch();
+        ContentResolver cr = mContext.getContentResolver();
+
+        // Get the calendar id for this event, unless it came with one
+        long calId = e.getCalendarId();
+        Cursor cursor;
+        if (calId == 0) {
+            cursor = cr.query(ContentUris.withAppendedId(Events.CONTENT_URI, e.getId()),
+                    new String[] {
+                        Events.CALENDAR_ID
+                    },
+                    null /* selection */,
+                    null /* selectionArgs */,
+                    null /* sort */);
+
+            if (cursor == null) {
+                return null;
+            }
+
+            if (cursor.getCount() == 0) {
+                cursor.close();
+                return null;
+            }
+
+            cursor.moveToFirst();
+            calId = cursor.getLong(0);
             cursor.close();
-            return ACCESS_LEVEL_NONE;
         }
 
-        cursor.moveToFirst();
-        long calId = cursor.getLong(0);
-        cursor.close();
-
         Uri uri = Calendars.CONTENT_URI;
         String where = String.format(CALENDARS_WHERE, calId);
         cursor = cr.query(uri, CALENDARS_PROJECTION, where, null, null);
 
+        int accessLevel = Calendars.CAL_ACCESS_NONE;
         String calendarOwnerAccount = null;
         if (cursor != null) {
-            cursor.moveToFirst();
-            accessLevel = cursor.getInt(CALENDARS_INDEX_ACCESS_LEVEL);
-            calendarOwnerAccount = cursor.getString(CALENDARS_INDEX_OWNER_ACCOUNT);
+            if (cursor.moveToFirst()) {
+                accessLevel = cursor.getInt(CALENDARS_INDEX_ACCESS_LEVEL);
+                calendarOwnerAccount = cursor.getString(CALENDARS_INDEX_OWNER_ACCOUNT);
+            }
             cursor.close();
         }
 
-        if (accessLevel < Calendars.CAL_ACCESS_CONTRIBUTOR) {
-            return ACCESS_LEVEL_NONE;
-        }
-
-        if (e.isGuestsCanModify()) {
-            return ACCESS_LEVEL_EDIT;
-        }
-
-        if (!TextUtils.isEmpty(calendarOwnerAccount)
-                && calendarOwnerAccount.equalsIgnoreCase(e.getOrganizer())) {
-            return ACCESS_LEVEL_EDIT;
+        CalendarAccess access = new CalendarAccess(accessLevel, calendarOwnerAccount);
+        if (e.getCalendarId() == 0) {
+            mCalendarAccess.putEvent(e.getId(), calId, access, epoch);
+        } else {
+            mCalendarAccess.putCalendar(calId, access, epoch);
         }
+        return access;
+    }
 
-        return ACCESS_LEVEL_DELETE;
+    /**
+     * Forgets the access levels of the calendars. They are filled in again by
+     * the next loads. Only needed to stop answering from old values, as the
+     * loads keep them up to date.
+     */
+    public void invalidateCalendarAccess() {
+        mCalendarAccess.clear();
     }
 
 }
@@ -0,0 +1,66 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+package com.google.code.yadview.impl;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.code.yadview.LoaderScheduler;
+
+/**
+ * Posts to the thread, normally the UI thread, that creates it.
+ */
+public class HandlerLoaderScheduler implements LoaderScheduler {
+
+    private static final String TAG = "DayViewEventLoader";
+
+    private final Handler mHandler;
+
+    public HandlerLoaderScheduler() {
+        this(new Handler());
+    }
+
+    public HandlerLoaderScheduler(Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override
+    public void post(Runnable callback) {
+        mHandler.post(callback);
+    }
+
+    @Override
+    public void postDelayed(Runnable callback, long delayMillis) {
+        mHandler.postDelayed(callback, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable callback) {
+        mHandler.removeCallbacks(callback);
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void reportError(String message, RuntimeException error) {
+        Log.e(TAG, message, error);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+package com.google.code.yadview.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.google.code.yadview.LoaderScheduler;
+
+/**
+ * A {@link LoaderScheduler} for running a loader off the device. Posted
+ * callbacks are queued and only run, on the calling thread, by
+ * {@link #runPending()} and {@link #advanceBy(long)}, and the clock only moves
+ * in advanceBy(). Callbacks due at the same time run in the order they were
+ * posted.
+ */
+public class ManualLoaderScheduler implements LoaderScheduler {
+
+    // All guarded by this
+    private final PriorityQueue<Task> mTasks = new PriorityQueue<Task>();
+    private long mNow;
+    private long mNextSequence;
+    private final ArrayList<RuntimeException> mErrors = new ArrayList<RuntimeException>();
+
+    private static final class Task implements Comparable<Task> {
+        final long when;
+        final long sequence;
+        final Runnable callback;
+
+        Task(long when, long sequence, Runnable callback) {
+            this.when = when;
+            this.sequence = sequence;
+            this.callback = callback;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (when != other.when) {
+                return when < other.when ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    @Override
+    public void post(Runnable callback) {
+        postDelayed(callback, 0);
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable callback, long delayMillis) {
+        mTasks.add(new Task(mNow + Math.max(delayMillis, 0), mNextSequence++, callback));
+    }
+
+    @Override
+    public synchronized void removeCallbacks(Runnable callback) {
+        Iterator<Task> it = mTasks.iterator();
+        while (it.hasNext()) {
+            if (it.next().callback == callback) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized long uptimeMillis() {
+        return mNow;
+    }
+
+    @Override
+    public synchronized void reportError(String message, RuntimeException error) {
+        mErrors.add(error);
+    }
+
+    /**
+     * @return the errors reported so far, oldest first
+     */
+    public synchronized List<RuntimeException> getErrors() {
+        return new ArrayList<RuntimeException>(mErrors);
+    }
+
+    /**
+     * Runs the callbacks that are due, including those they post for now.
+     *
+     * @return the number of callbacks run
+     */
+    public int runPending() {
+        int count = 0;
+        Runnable callback;
+        while ((callback = takeDue()) != null) {
+            callback.run();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Moves the clock forward, running each callback that becomes due at its
+     * time.
+     *
+     * @return the number of callbacks run
+     */
+    public int advanceBy(long millis) {
+        final long target;
+        synchronized (this) {
+            target = mNow + millis;
+        }
+        int count = runPending();
+        while (true) {
+            synchronized (this) {
+                Task next = mTasks.peek();
+                if (next == null || next.when > target) {
+                    mNow = target;
+                    return count;
+                }
+                mNow = Math.max(mNow, next.when);
+            }
+            count += runPending();
+        }
+    }
+
+    /**
+     * @return the number of callbacks waiting, due or not
+     */
+    public synchronized int getPendingCount() {
+        return mTasks.size();
+    }
+
+    /**
+     * Drops every waiting callback.
+     */
+    public synchronized void clear() {
+        mTasks.clear();
+    }
+
+    private synchronized Runnable takeDue() {
+        Task next = mTasks.peek();
+        if (next == null || next.when > mNow) {
+            return null;
+        }
+        return mTasks.poll().callback;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import com.google.code.yadview.LoaderThreadFactory;
+import com.google.code.yadview.LoaderWorker;
+
+/**
+ * A {@link LoaderThreadFactory} for running a loader off the device without
+ * threads. The workers only serve requests, on the calling thread, when
+ * {@link #runPendingWork()} or {@link #runNextRequest()} is called. Together
+ * with {@link ManualLoaderScheduler} this makes the queueing, replacing and
+ * skipping of requests repeatable.
+ */
+public class ManualLoaderThreadFactory implements LoaderThreadFactory {
+
+    // In the order they were started, which is the order of the lanes'
+    // priority. Guarded by this.
+    private final ArrayList<LoaderWorker> mWorkers = new ArrayList<LoaderWorker>();
+
+    @Override
+    public synchronized void startWorker(String name, int threadPriority, LoaderWorker worker) {
+        mWorkers.add(worker);
+    }
+
+    /**
+     * Serves one request: the next one of the lane with the highest priority
+     * that has one and may run.
+     *
+     * @return true if a request was served
+     */
+    public boolean runNextRequest() {
+        for (LoaderWorker worker : getWorkers()) {
+            if (worker.runOnce()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Serves requests until none is left that may run, including the ones
+     * the requests served queue.
+     *
+     * @return the number of requests served
+     */
+    public int runPendingWork() {
+        int count = 0;
+        while (runNextRequest()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of workers the loader has started and not stopped
+     */
+    public int getWorkerCount() {
+        return getWorkers().size();
+    }
+
+    // Forgets the stopped workers and returns the others
+    private synchronized ArrayList<LoaderWorker> getWorkers() {
+        Iterator<LoaderWorker> it = mWorkers.iterator();
+        while (it.hasNext()) {
+            if (it.next().isStopped()) {
+                it.remove();
+            }
+        }
+        return new ArrayList<LoaderWorker>(mWorkers);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ 
+ */
+
+package com.google.code.yadview.impl;
+
+import java.util.List;
+
+import com.google.code.yadview.Event;
+import com.google.code.yadview.EventResource;
+import com.google.code.yadview.EventSink;
+import com.google.code.yadview.Predicate;
+
+/**
+ * Lets an {@link EventResource} that is not thread-safe be used by a
+ * {@link com.google.code.yadview.DayViewEventLoader}, by making its calls one
+ * at a time. A prefetch that has started then holds up a load of the visible
+ * days until it is done, and so does a call to getEventAccessLevel() from the
+ * UI thread, so prefer making the resource thread-safe.
+ */
+public class SerializedEventResource implements EventResource {
+
+    private final EventResource mEventResource;
+
+    public SerializedEventResource(EventResource eventResource) {
+        mEventResource = eventResource;
+    }
+
+    @Override
+    public synchronized List<Event> get(int startJulianDay, int numDays,
+            Predicate continueLoading) {
+        return mEventResource.get(startJulianDay, numDays, continueLoading);
+    }
+
+    @Override
+    public synchronized void get(int startJulianDay, int numDays, EventSink sink,
+            Predicate continueLoading) {
+        mEventResource.get(startJulianDay, numDays, sink, continueLoading);
+    }
+
+    @Override
+    public synchronized void get(int startJulianDay, int numDays, int focusStartMinute,
+            int focusEndMinute, EventSink sink, Predicate continueLoading) {
+        mEventResource.get(startJulianDay, numDays, focusStartMinute, focusEndMinute, sink,
+                continueLoading);
+    }
+
+    @Override
+    public synchronized void getEventDays(int startJulianDay, int numDays, boolean[] eventDays,
+            Predicate continueLoading) {
+        mEventResource.getEventDays(startJulianDay, numDays, eventDays, continueLoading);
+    }
+
+    @Override
+    public synchronized int getEventAccessLevel(Event e) {
+        return mEventResource.getEventAccessLevel(e);
+    }
+
+    /**
+     * @return the resource whose calls are made one at a time
+     */
+    public EventResource getEventResource() {
+        return mEventResource;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+
+package com.google.code.yadview;
+
+import static com.google.code.yadview.TestEvents.DAY;
+import static com.google.code.yadview.TestEvents.MINUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link ArrayLayoutStrategy} against the straightforward
+ * {@link ReferenceLayoutStrategy}.
+ */
+public class ArrayLayoutStrategyTest {
+
+    @Test
+    public void overlappingEventsGetSeparateColumns() {
+        TestEvents events = new TestEvents(1);
+        ArrayList<EventLayout> layouts = TestEvents.layouts(Arrays.asList(
+                events.event(10 * DAY + 9 * 60 * MINUTE, 60 * MINUTE, false),
+                events.event(10 * DAY + 9 * 60 * MINUTE + 30 * MINUTE, 60 * MINUTE, false),
+                events.event(10 * DAY + 10 * 60 * MINUTE, 60 * MINUTE, false),
+                events.event(10 * DAY + 12 * 60 * MINUTE, 60 * MINUTE, false)));
+
+        EventLayout.computePositions(layouts, 0, 0, new ArrayLayoutStrategy());
+
+        // The third event starts when the first ends and takes its column
+        assertEquals(0, layouts.get(0).getColumn());
+        assertEquals(1, layouts.get(1).getColumn());
+        assertEquals(0, layouts.get(2).getColumn());
+        assertEquals(2, layouts.get(0).getMaxColumns());
+        assertEquals(2, layouts.get(2).getMaxColumns());
+        // The last one is a group of its own
+        assertEquals(0, layouts.get(3).getColumn());
+        assertEquals(1, layouts.get(3).getMaxColumns());
+    }
+
+    @Test
+    public void eventsPastMaxVisibleColumnsShareAnOverflow() {
+        TestEvents events = new TestEvents(2);
+        List<Event> list = new ArrayList<Event>();
+        for (int i = 0; i < 5; i++) {
+            list.add(events.event(10 * DAY + 9 * 60 * MINUTE + i * MINUTE, 60 * MINUTE, false));
+        }
+        ArrayList<EventLayout> layouts = TestEvents.layouts(list);
+
+        EventLayout.computePositions(layouts, 0, 3, new ArrayLayoutStrategy());
+
+        assertFalse(layouts.get(0).isOverflow());
+        assertFalse(layouts.get(2).isOverflow());
+        assertTrue(layouts.get(3).isOverflow());
+        assertTrue(layouts.get(4).isOverflow());
+        assertEquals(3, layouts.get(0).getMaxColumns());
+        EventOverflow overflow = layouts.get(3).getOverflow();
+        assertEquals(2, overflow.getCount());
+        assertTrue(overflow == layouts.get(4).getOverflow());
+        assertTrue(overflow.getFirstHiddenEvent() == layouts.get(3));
+    }
+
+    @Test
+    public void matchesReferenceStrategy() {
+        Random r = new Random(9);
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            final boolean dense = iteration % 3 == 0;
+            final int n = r.nextInt(300);
+            List<Event> list = new ArrayList<Event>();
+            long t = 0;
+            for (int i = 0; i < n; i++) {
+                Event e = new Event();
+                t += r.nextInt(dense ? 2 : 4) * 15 * MINUTE;
+                long duration;
+                if (r.nextInt(10) == 0) {
+                    duration = 0;
+                } else if (r.nextInt(10) == 0) {
+                    duration = 2 * DAY;
+                } else {
+                    duration = r.nextInt(dense ? 2400 : 240) * MINUTE;
+                }
+                TestEvents.set(e, t, duration, r.nextInt(8) == 0);
+                if (e.isAllDay()) {
+                    e.setEndDay(e.getEndDay() + r.nextInt(3));
+                }
+                list.add(e);
+            }
+            final long minimumDuration = r.nextInt(3) * 30 * MINUTE;
+            final int maxVisibleColumns = r.nextInt(4) == 0 ? 0 : r.nextInt(6) + 1;
+
+            ArrayList<EventLayout> actual = TestEvents.layouts(list);
+            ArrayList<EventLayout> expected = TestEvents.layouts(list);
+            EventLayout.computePositions(actual, minimumDuration, maxVisibleColumns,
+                    new ArrayLayoutStrategy());
+            EventLayout.computePositions(expected, minimumDuration, maxVisibleColumns,
+                    new ReferenceLayoutStrategy());
+
+            for (int i = 0; i < n; i++) {
+                final String where = "iteration " + iteration + " event " + i;
+                EventLayout a = actual.get(i);
+                EventLayout e = expected.get(i);
+                assertEquals(where, e.getColumn(), a.getColumn());
+                assertEquals(where, e.getMaxColumns(), a.getMaxColumns());
+                assertEquals(where, e.isOverflow(), a.isOverflow());
+                if (a.isOverflow()) {
+                    List<EventLayout> hiddenActual = a.getOverflow().getHiddenEvents();
+                    List<EventLayout> hiddenExpected = e.getOverflow().getHiddenEvents();
+                    assertEquals(where, hiddenExpected.size(), hiddenActual.size());
+                    for (int k = 0; k < hiddenActual.size(); k++) {
+                        assertEquals(where, expected.indexOf(hiddenExpected.get(k)),
+                                actual.indexOf(hiddenActual.get(k)));
+                    }
+                }
+            }
+        }
+    }
+}
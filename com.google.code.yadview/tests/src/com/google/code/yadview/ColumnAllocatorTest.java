@@ -0,0 +1,64 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+
+package com.google.code.yadview;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ColumnAllocatorTest {
+
+    @Test
+    public void allocatesLowestFreeColumn() {
+        ColumnAllocator columns = new ColumnAllocator();
+        assertEquals(0, columns.allocate());
+        assertEquals(1, columns.allocate());
+        assertEquals(2, columns.allocate());
+
+        columns.release(1);
+        assertEquals(1, columns.allocate());
+        assertEquals(3, columns.allocate());
+    }
+
+    @Test
+    public void growsPastOneWord() {
+        ColumnAllocator columns = new ColumnAllocator();
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, columns.allocate());
+        }
+
+        columns.release(130);
+        columns.release(64);
+        columns.release(63);
+        assertEquals(63, columns.allocate());
+        assertEquals(64, columns.allocate());
+        assertEquals(130, columns.allocate());
+        assertEquals(200, columns.allocate());
+    }
+
+    @Test
+    public void clearFreesEveryColumn() {
+        ColumnAllocator columns = new ColumnAllocator();
+        for (int i = 0; i < 100; i++) {
+            columns.allocate();
+        }
+        columns.clear();
+        assertEquals(0, columns.allocate());
+        assertEquals(1, columns.allocate());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+
+package com.google.code.yadview;
+
+import static com.google.code.yadview.TestEvents.DAY;
+import static com.google.code.yadview.TestEvents.MINUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EventDayIndexTest {
+
+    private static final int FIRST_DAY = 100;
+
+    @Test
+    public void listsEventsUnderEveryDayTheyTouch() {
+        TestEvents events = new TestEvents(1);
+        Event morning = events.event(FIRST_DAY * DAY + 9 * 60 * MINUTE, 60 * MINUTE, false);
+        // 22:00 on the first day to 02:00 on the second
+        Event overnight = events.event(FIRST_DAY * DAY + 22 * 60 * MINUTE, 4 * 60 * MINUTE, false);
+        Event allDay = events.event(FIRST_DAY * DAY, DAY, true);
+        Event later = events.event((FIRST_DAY + 1) * DAY + 8 * 60 * MINUTE, 30 * MINUTE, false);
+        ArrayList<EventLayout> layouts = TestEvents.layouts(Arrays.asList(morning, overnight,
+                allDay, later));
+
+        EventDayIndex index = new EventDayIndex(layouts, FIRST_DAY, 3);
+
+        assertEquals(4, index.size());
+        assertEquals(0, index.getStart(FIRST_DAY));
+        assertEquals(2, index.getEnd(FIRST_DAY));
+        assertTrue(index.get(0) == layouts.get(0));
+        assertTrue(index.get(1) == layouts.get(1));
+
+        // On the second day the overnight event starts at midnight
+        assertEquals(2, index.getStart(FIRST_DAY + 1));
+        assertEquals(4, index.getEnd(FIRST_DAY + 1));
+        assertTrue(index.get(2) == layouts.get(1));
+        assertEquals(0, index.getStartMinute(2));
+        assertEquals(2 * 60, index.getEndMinute(2));
+        assertTrue(index.get(3) == layouts.get(3));
+
+        // The first day's part runs to the end of the day
+        assertEquals(22 * 60, index.getStartMinute(1));
+        assertEquals(DayView.MINUTES_PER_DAY, index.getEndMinute(1));
+
+        assertEquals(index.getStart(FIRST_DAY + 2), index.getEnd(FIRST_DAY + 2));
+        // Days outside the index are empty
+        assertEquals(0, index.getEnd(FIRST_DAY - 1));
+        assertEquals(0, index.getEnd(FIRST_DAY + 3));
+    }
+
+    @Test
+    public void rangeQueriesMatchLinearScan() {
+        TestEvents events = new TestEvents(5);
+        Random r = events.random();
+        for (int iteration = 0; iteration < 500; iteration++) {
+            List<Event> list = events.randomEvents(FIRST_DAY, r.nextInt(60));
+            Collections.sort(list, EventDelta.DISPLAY_ORDER);
+            EventDayIndex index = new EventDayIndex(TestEvents.layouts(list), FIRST_DAY, 3);
+
+            for (int day = FIRST_DAY; day < FIRST_DAY + 3; day++) {
+                final int start = index.getStart(day);
+                final int end = index.getEnd(day);
+                for (int i = start + 1; i < end; i++) {
+                    assertTrue(index.getStartMinute(i - 1) <= index.getStartMinute(i));
+                }
+
+                final int minute = r.nextInt(DayView.MINUTES_PER_DAY + 1);
+                // Everything before the first match ends before the minute,
+                // and the match is the first entry where some entry so far
+                // reaches it
+                final int first = index.getFirstEndingAtOrAfter(day, minute);
+                for (int i = start; i < first; i++) {
+                    assertTrue(index.getEndMinute(i) < minute);
+                }
+                assertTrue(first == end || maxEndThrough(index, start, first) >= minute);
+
+                // Exactly the entries before the end start at or before the minute
+                final int last = index.getEndStartingAtOrBefore(day, minute);
+                for (int i = start; i < end; i++) {
+                    assertEquals(i < last, index.getStartMinute(i) <= minute);
+                }
+            }
+        }
+    }
+
+    private static int maxEndThrough(EventDayIndex index, int from, int to) {
+        int max = -1;
+        for (int i = from; i <= to; i++) {
+            max = Math.max(max, index.getEndMinute(i));
+        }
+        return max;
+    }
+}
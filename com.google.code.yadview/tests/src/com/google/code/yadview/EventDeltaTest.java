@@ -0,0 +1,107 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+
+package com.google.code.yadview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class EventDeltaTest {
+
+    @Test
+    public void restrictToMatchesComputeOnTheNarrowerRange() {
+        Random r = new Random(3);
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            ArrayList<Event> before = new ArrayList<Event>();
+            ArrayList<Event> after = new ArrayList<Event>();
+            for (int id = 0; id < 30; id++) {
+                final int startDay = 100 + r.nextInt(21);
+                Event e = event(id, startDay, startDay + r.nextInt(3), "t");
+                if (r.nextInt(4) != 0) {
+                    before.add(e);
+                }
+                // Keep it, move its end or retitle it
+                final int op = r.nextInt(4);
+                if (op == 0) {
+                    continue;
+                }
+                after.add(event(id, startDay, op == 1 ? startDay + r.nextInt(3) : e.getEndDay(),
+                        op == 2 ? "u" : "t"));
+            }
+
+            EventDelta restricted = EventDelta.compute(before, after, 100, 23).restrictTo(107, 7);
+            EventDelta direct = EventDelta.compute(covering(before, 107, 7),
+                    covering(after, 107, 7), 107, 7);
+
+            // An instance that only now covers the days is changed in the
+            // restricted delta but added in the direct one. Both bring it in.
+            Set<String> restrictedIn = keys(restricted.getAdded());
+            restrictedIn.addAll(keys(restricted.getChanged()));
+            Set<String> directIn = keys(direct.getAdded());
+            directIn.addAll(keys(direct.getChanged()));
+            final String where = "iteration " + iteration;
+            assertEquals(where, directIn, restrictedIn);
+            assertTrue(where, keys(restricted.getRemoved()).containsAll(keys(direct.getRemoved())));
+            assertEquals(107, restricted.getFirstJulianDay());
+            assertEquals(7, restricted.getNumDays());
+        }
+    }
+
+    @Test
+    public void restrictToSameRangeIsIdentity() {
+        EventDelta delta = EventDelta.compute(new ArrayList<Event>(),
+                Collections.singletonList(event(1, 101, 101, "t")), 100, 5);
+        assertTrue(delta.restrictTo(100, 5) == delta);
+    }
+
+    private static Event event(long id, int startDay, int endDay, String title) {
+        Event e = new Event();
+        e.setId(id);
+        e.setStartDay(startDay);
+        e.setEndDay(endDay);
+        e.setStartMillis(startDay * 1000L);
+        e.setTitle(title);
+        return e;
+    }
+
+    private static List<Event> covering(List<Event> events, int firstDay, int numDays) {
+        ArrayList<Event> result = new ArrayList<Event>();
+        for (Event e : events) {
+            if (e.getStartDay() <= firstDay + numDays - 1 && e.getEndDay() >= firstDay) {
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> keys(List<Event> events) {
+        TreeSet<String> keys = new TreeSet<String>();
+        for (Event e : events) {
+            keys.add(e.getId() + "@" + e.getStartMillis());
+        }
+        return keys;
+    }
+}
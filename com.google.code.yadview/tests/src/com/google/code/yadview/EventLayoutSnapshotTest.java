@@ -0,0 +1,130 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+
+package com.google.code.yadview;
+
+import static com.google.code.yadview.TestEvents.MINUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that updating a snapshot gives the same layout as building one from
+ * scratch.
+ */
+public class EventLayoutSnapshotTest {
+
+    private static final int FIRST_DAY = 100;
+    private static final int NUM_DAYS = 3;
+
+    @Test
+    public void withDeltaMatchesBuild() {
+        TestEvents events = new TestEvents(7);
+        Random r = events.random();
+        for (int iteration = 0; iteration < 1500; iteration++) {
+            long minimumDuration = r.nextInt(3) * 15 * MINUTE;
+            final int maxVisibleColumns = r.nextInt(3) == 0 ? 0 : 1 + r.nextInt(3);
+
+            List<Event> before = events.randomEvents(FIRST_DAY, r.nextInt(40));
+            Collections.sort(before, EventDelta.DISPLAY_ORDER);
+            EventLayoutSnapshot original = EventLayoutSnapshot.build(before, FIRST_DAY, NUM_DAYS,
+                    1, minimumDuration, maxVisibleColumns);
+            final String originalLayout = TestEvents.describe(original);
+
+            // Drop, recolour, lengthen or keep each event and add a few
+            ArrayList<Event> after = new ArrayList<Event>();
+            for (Event e : before) {
+                final int op = r.nextInt(10);
+                if (op == 0) {
+                    continue;
+                }
+                Event c = TestEvents.copy(e);
+                if (op == 1) {
+                    c.setColor(5);
+                } else if (op == 2 && !e.drawAsAllday()) {
+                    TestEvents.set(c, e.getStartMillis(),
+                            e.getEndMillis() - e.getStartMillis() + 30 * MINUTE, false);
+                }
+                after.add(c);
+            }
+            after.addAll(events.randomEvents(FIRST_DAY, r.nextInt(4)));
+            EventDelta delta = EventDelta.compute(before, after, FIRST_DAY, NUM_DAYS);
+            Collections.sort(after, EventDelta.DISPLAY_ORDER);
+
+            if (iteration % 2 == 0) {
+                minimumDuration = r.nextInt(4) * 20 * MINUTE;
+            }
+            EventLayoutSnapshot updated = original.withDelta(delta, 2, minimumDuration,
+                    maxVisibleColumns);
+            EventLayoutSnapshot expected = EventLayoutSnapshot.build(after, FIRST_DAY, NUM_DAYS, 2,
+                    minimumDuration, maxVisibleColumns);
+
+            final String where = "iteration " + iteration;
+            assertEquals(where, TestEvents.describe(expected), TestEvents.describe(updated));
+            // The original is left as it was
+            assertEquals(where, originalLayout, TestEvents.describe(original));
+            // and the updated one's cache already holds its layout
+            assertFalse(where, updated.getLayoutCache().computePositions(updated.getLayouts(), 2,
+                    minimumDuration, maxVisibleColumns));
+        }
+    }
+
+    @Test
+    public void withAddedEventsMatchesBuild() {
+        TestEvents events = new TestEvents(11);
+        Random r = events.random();
+        for (int iteration = 0; iteration < 1500; iteration++) {
+            final long minimumDuration = r.nextInt(3) * 15 * MINUTE;
+            final int maxVisibleColumns = r.nextInt(3) == 0 ? 0 : 1 + r.nextInt(3);
+            List<Event> all = events.randomEvents(FIRST_DAY, r.nextInt(60));
+            Collections.sort(all, EventDelta.DISPLAY_ORDER);
+
+            // Deliver the events in random chunks and in a different order,
+            // like a load that streams the visible hours first
+            ArrayList<Event> stream = new ArrayList<Event>(all);
+            Collections.shuffle(stream, r);
+            EventLayoutSnapshot snapshot = null;
+            int done = 0;
+            while (snapshot == null || done < stream.size()) {
+                final int next = Math.min(stream.size(), done + r.nextInt(8));
+                if (snapshot == null) {
+                    ArrayList<Event> part = new ArrayList<Event>(stream.subList(0, next));
+                    Collections.sort(part, EventDelta.DISPLAY_ORDER);
+                    snapshot = EventLayoutSnapshot.build(part, FIRST_DAY, NUM_DAYS, 1,
+                            minimumDuration, maxVisibleColumns);
+                } else {
+                    snapshot = snapshot.withAddedEvents(stream.subList(done, next), 1,
+                            minimumDuration, maxVisibleColumns);
+                }
+                done = next;
+            }
+
+            EventLayoutSnapshot expected = EventLayoutSnapshot.build(all, FIRST_DAY, NUM_DAYS, 1,
+                    minimumDuration, maxVisibleColumns);
+            final String where = "iteration " + iteration;
+            assertEquals(where, TestEvents.describe(expected), TestEvents.describe(snapshot));
+            assertFalse(where, snapshot.getLayoutCache().computePositions(snapshot.getLayouts(), 1,
+                    minimumDuration, maxVisibleColumns));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+Copyright 2013 Chris Pope
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+
+package com.google.code.yadview;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds events for the layout tests. Days are counted from the epoch, so a
+ * start millis of day * DAY falls at midnight of Julian day "day".
+ */
+final class TestEvents {
+
+    static final long MINUTE = 60 * 1000L;
+    static final long DAY = 24 * 60 * MINUTE;
+
+    private final Random mRandom;
+    private long mNextId = 1;
+
+    TestEvents(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    Random random() {
+        return mRandom;
+    }
+
+    /**
+     * @return a new event with its own id and all the day and minute fields
+     *         filled in from start and duration
+     */
+    Event event(long startMillis, long durationMillis, boolean allDay) {
+        Event e = new Event();
+        e.setId(mNextId++);
+        e.setTitle("event " + e.getId());
+        set(e, startMillis, durationMillis, allDay);
+        return e;
+    }
+
+    /**
+     * @return a random event starting on one of the three days from firstDay,
+     *         sometimes all-day, empty or crossing midnight
+     */
+    Event randomEvent(int firstDay) {
+        final Random r = mRandom;
+        final int day = firstDay + r.nextInt(3);
+        final boolean allDay = r.nextInt(8) == 0;
+        final long start = day * DAY + (allDay ? 0 : r.nextInt(24 * 4) * 15 * MINUTE);
+        final long duration;
+        if (allDay) {
+            duration = DAY * (1 + r.nextInt(2));
+        } else if (r.nextInt(10) == 0) {
+            duration = 0;
+        } else {
+            duration = (1 + r.nextInt(12)) * 15 * MINUTE;
+        }
+        return event(start, duration, allDay);
+    }
+
+    List<Event> randomEvents(int firstDay, int count) {
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < count; i++) {
+            events.add(randomEvent(firstDay));
+        }
+        return events;
+    }
+
+    static void set(Event e, long startMillis, long durationMillis, boolean allDay) {
+        final long endMillis = startMillis + durationMillis;
+        e.setAllDay(allDay);
+        e.setStartMillis(startMillis);
+        e.setEndMillis(endMillis);
+        e.setStartDay((int) (startMillis / DAY));
+        // An event ending exactly at midnight ends on the day before
+        e.setEndDay((int) ((endMillis - (durationMillis > 0 ? 1 : 0)) / DAY));
+        e.setStartTime((int) (startMillis % DAY / MINUTE));
+        e.setEndTime((int) (endMillis % DAY / MINUTE));
+    }
+
+    static Event copy(Event e) {
+        Event c = new Event();
+        e.copyTo(c);
+        return c;
+    }
+
+    static ArrayList<EventLayout> layouts(List<Event> events) {
+        ArrayList<EventLayout> layouts = new ArrayList<EventLayout>();
+        for (Event e : events) {
+            layouts.add(new EventLayout(e));
+        }
+        return layouts;
+    }
+
+    /**
+     * @return a description of the columns, overflow groups, all-day rows and
+     *         per-day summaries of a snapshot, equal for equal layouts
+     */
+    static String describe(EventLayoutSnapshot snapshot) {
+        StringBuilder b = new StringBuilder();
+        for (EventLayout l : snapshot.getLayouts()) {
+            b.append(l.getEvent().getId()).append('@').append(l.getEvent().getStartMillis())
+                    .append(':').append(l.getColumn()).append('/').append(l.getMaxColumns());
+            if (l.isOverflow()) {
+                EventOverflow overflow = l.getOverflow();
+                b.append(" +").append(overflow.getCount()).append(" from ")
+                        .append(overflow.getFirstHiddenEvent().getEvent().getId());
+            }
+            b.append('\n');
+        }
+        b.append("all-day:");
+        for (EventLayout l : snapshot.getAllDayLayouts()) {
+            b.append(' ').append(l.getEvent().getId());
+        }
+        b.append("\nmax all-day: ").append(snapshot.getMaxAllDayEvents());
+        for (int d = 0; d < snapshot.getNumDays(); d++) {
+            b.append("\nday ").append(d).append(": ").append(snapshot.getEarliestStartHour(d))
+                    .append(' ').append(snapshot.hasAllDayEvent(d));
+        }
+        b.append("\nindexed: ").append(snapshot.getDayIndex().size());
+        return b.toString();
+    }
+}